@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.lucee.extension.cache.eh.bench;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * runs the read path benchmarks with the gc profiler and fails (exit code 1) when one of them
+ * allocates. Serialized caches are not checked, there every read decodes the stored value.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar org.lucee.extension.cache.eh.bench.AllocationGate [max bytes/op]
+ * </pre>
+ */
+public final class AllocationGate {
+
+	private static final String READ_PATH = EHCacheBenchmark.class.getName()
+			+ ".(getValueHit|getValueMiss|getCacheEntryHit|getCacheEntryMiss|contains)$";
+	// jmh reports a few fractions of a byte per op for its own infrastructure
+	private static final double DEFAULT_LIMIT = 1.0;
+
+	private AllocationGate() {
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		double limit = args.length > 0 ? Double.parseDouble(args[0]) : DEFAULT_LIMIT;
+
+		Options opt = new OptionsBuilder().include(READ_PATH).param("mode", "local", "distributed")
+				.addProfiler(GCProfiler.class).warmupIterations(3).warmupTime(TimeValue.seconds(1))
+				.measurementIterations(3).measurementTime(TimeValue.seconds(1)).forks(1).build();
+		Collection<RunResult> results = new Runner(opt).run();
+
+		int failures = 0;
+		for (RunResult rr : results) {
+			Map<String, Result> secondary = rr.getSecondaryResults();
+			Result norm = secondary.get("gc.alloc.rate.norm");
+			String label = rr.getParams().getBenchmark() + " " + rr.getParams().getParam("mode");
+			if (norm == null) {
+				System.err.println("[FAIL] " + label + ": no allocation rate reported");
+				failures++;
+			} else if (norm.getScore() > limit) {
+				System.err.println("[FAIL] " + label + ": " + norm.getScore() + " B/op (limit " + limit + ")");
+				failures++;
+			} else {
+				System.out.println("[ OK ] " + label + ": " + norm.getScore() + " B/op");
+			}
+		}
+		if (failures > 0) {
+			System.err.println(failures + " read path benchmark(s) allocate");
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.lucee.extension.cache.eh.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.lucee.extension.cache.eh.EHCache;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import lucee.runtime.type.Struct;
+
+/**
+ * a populated EHCache instance, configured like the admin does for the given mode
+ * <ul>
+ * <li>local: distributed=off</li>
+ * <li>stored: distributed=off, values are stored serialized (storeserialized)</li>
+ * <li>serialized: distributed=manual with replication via copy, values go through TypeUtil</li>
+ * <li>distributed: distributed=manual, replicated by reference</li>
+ * </ul>
+ * the manual configurations have no peers, so what gets measured is the overhead of the replicator
+ * and not the network.
+ */
+@State(Scope.Benchmark)
+public class CacheState {
+
+	@Param({ "local", "stored", "serialized", "distributed" })
+	public String mode;
+
+	@Param({ "10000" })
+	public int entries;
+
+	// with true only 10% of the entries fit into the heap, the rest goes to the disk tier
+	@Param({ "false" })
+	public boolean overflow;
+
+	// keep the sorted key index for prefix filters
+	@Param({ "false" })
+	public boolean prefixIndex;
+
+	// remove expired elements in the background with a timer wheel
+	@Param({ "false" })
+	public boolean proactiveExpiry;
+
+	// values (of the serialized mode) with at least that many bytes are compressed, 0 for none
+	@Param({ "0" })
+	public int compressionThreshold;
+
+	public EHCache cache;
+	public String[] keys;
+	public String[] missingKeys;
+	public Object value;
+
+	private File dir;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("ehcache-bench").toFile();
+		StubEngine.install(dir);
+
+		cache = new EHCache();
+		cache.init("bench_" + mode,
+				arguments(mode, overflow ? Math.max(1, entries / 10) : 0, prefixIndex, proactiveExpiry,
+						compressionThreshold));
+
+		keys = new String[entries];
+		missingKeys = new String[entries];
+		for (int i = 0; i < entries; i++) {
+			keys[i] = key(i);
+			missingKeys[i] = "missing-" + i;
+		}
+		value = Values.nested(2, 4);
+		populate();
+		// the index is built in the background on first use, give it time so the scans measure the index
+		if (prefixIndex)
+			pause(1000);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (cache != null)
+			cache.release();
+		delete(dir);
+	}
+
+	public void populate() {
+		for (int i = 0; i < entries; i++) {
+			cache.put(keys[i], value, null, null);
+		}
+	}
+
+	/**
+	 * keys are spread over 10 groups ("group0-", "group1-" ...), so a prefix filter matches 10%
+	 */
+	public static String key(int index) {
+		return "group" + (index % 10) + "-" + index;
+	}
+
+	/**
+	 * @param inMemory max elements in memory, 0 for a heap only cache
+	 * @param prefixIndex keep the sorted key index for prefix filters
+	 * @param proactiveExpiry remove expired elements in the background
+	 * @param compressionThreshold compress values with at least that many bytes, 0 for none
+	 */
+	private static Struct arguments(String mode, int inMemory, boolean prefixIndex, boolean proactiveExpiry,
+			int compressionThreshold) {
+		Struct args = StubEngine.struct();
+		args.setEL("eternal", "false");
+		args.setEL("maxelementsinmemory", String.valueOf(inMemory > 0 ? inMemory : 1000000));
+		args.setEL("maxelementsondisk", "10000000");
+		args.setEL("memoryevictionpolicy", "LRU");
+		args.setEL("timeToIdleSeconds", "86400");
+		args.setEL("timeToLiveSeconds", "86400");
+		args.setEL("overflowtodisk", String.valueOf(inMemory > 0));
+		args.setEL("diskpersistent", "false");
+		args.setEL("prefixindex", String.valueOf(prefixIndex));
+		args.setEL("proactiveexpiry", String.valueOf(proactiveExpiry));
+		args.setEL("compressionthreshold", String.valueOf(compressionThreshold));
+		if ("local".equals(mode) || "stored".equals(mode)) {
+			args.setEL("distributed", "off");
+			args.setEL("storeserialized", String.valueOf("stored".equals(mode)));
+		} else {
+			boolean copy = "serialized".equals(mode);
+			args.setEL("distributed", "manual");
+			args.setEL("manual_rmiUrls", "");
+			args.setEL("listener_hostName", "localhost");
+			args.setEL("replicatePuts", "true");
+			args.setEL("replicatePutsViaCopy", String.valueOf(copy));
+			args.setEL("replicateUpdates", "true");
+			args.setEL("replicateUpdatesViaCopy", String.valueOf(copy));
+			args.setEL("replicateRemovals", "true");
+			args.setEL("replicateAsynchronously", "true");
+		}
+		return args;
+	}
+
+	private static void pause(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void delete(File file) {
+		if (file == null)
+			return;
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children) {
+				delete(child);
+			}
+		file.delete();
+	}
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.lucee.extension.cache.eh.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * single key operations
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EHCacheBenchmark {
+
+	private static final Long IDLE = Long.valueOf(60000);
+	private static final Long LIVE = Long.valueOf(120000);
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int index;
+
+		int next(int max) {
+			if (++index >= max)
+				index = 0;
+			return index;
+		}
+	}
+
+	/**
+	 * 50 keys per call, 40 of them in the cache
+	 */
+	@State(Scope.Thread)
+	public static class Batch {
+		private static final int SIZE = 50;
+		private final List<String> keys = new ArrayList<String>(SIZE);
+		private int index;
+
+		List<String> next(CacheState state) {
+			keys.clear();
+			for (int i = 0; i < SIZE; i++) {
+				if (++index >= state.entries)
+					index = 0;
+				keys.add(i % 5 == 0 ? state.missingKeys[index] : state.keys[index]);
+			}
+			return keys;
+		}
+	}
+
+	/**
+	 * 50 entries per call, all of them already in the cache
+	 */
+	@State(Scope.Thread)
+	public static class Entries {
+		private static final int SIZE = 50;
+		private final Map<String, Object> values = new LinkedHashMap<String, Object>(SIZE * 2);
+		private int index;
+
+		Map<String, Object> next(CacheState state) {
+			values.clear();
+			for (int i = 0; i < SIZE; i++) {
+				if (++index >= state.entries)
+					index = 0;
+				values.put(state.keys[index], state.value);
+			}
+			return values;
+		}
+	}
+
+	@Benchmark
+	public Object getValueHit(CacheState state, Cursor cursor) throws IOException {
+		return state.cache.getValue(state.keys[cursor.next(state.entries)]);
+	}
+
+	@Benchmark
+	public Object getValueMiss(CacheState state, Cursor cursor) {
+		return state.cache.getValue(state.missingKeys[cursor.next(state.entries)], null);
+	}
+
+	@Benchmark
+	public Object getCacheEntryHit(CacheState state, Cursor cursor) throws IOException {
+		return state.cache.getCacheEntry(state.keys[cursor.next(state.entries)]);
+	}
+
+	@Benchmark
+	public Object getCacheEntryMiss(CacheState state, Cursor cursor) {
+		return state.cache.getCacheEntry(state.missingKeys[cursor.next(state.entries)], null);
+	}
+
+	@Benchmark
+	public Object getAll(CacheState state, Batch batch) throws IOException {
+		return state.cache.getAll(batch.next(state));
+	}
+
+	@Benchmark
+	public Object getValueBatch(CacheState state, Batch batch) {
+		List<String> keys = batch.next(state);
+		Object last = null;
+		for (int i = 0; i < keys.size(); i++) {
+			last = state.cache.getValue(keys.get(i), null);
+		}
+		return last;
+	}
+
+	@Benchmark
+	public void put(CacheState state, Cursor cursor) {
+		state.cache.put(state.keys[cursor.next(state.entries)], state.value, null, null);
+	}
+
+	@Benchmark
+	public void putWithTimespans(CacheState state, Cursor cursor) {
+		state.cache.put(state.keys[cursor.next(state.entries)], state.value, IDLE, LIVE);
+	}
+
+	@Benchmark
+	public void putAll(CacheState state, Entries entries) throws IOException {
+		state.cache.putAll(entries.next(state), null, null);
+	}
+
+	@Benchmark
+	public void putBatch(CacheState state, Entries entries) {
+		for (Map.Entry<String, Object> e : entries.next(state).entrySet()) {
+			state.cache.put(e.getKey(), e.getValue(), null, null);
+		}
+	}
+
+	@Benchmark
+	public boolean contains(CacheState state, Cursor cursor) {
+		return state.cache.contains(state.keys[cursor.next(state.entries)]);
+	}
+}
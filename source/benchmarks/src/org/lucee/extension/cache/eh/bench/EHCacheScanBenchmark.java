@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.lucee.extension.cache.eh.bench;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import lucee.commons.io.cache.CacheEntryFilter;
+import lucee.commons.io.cache.CacheKeyFilter;
+
+/**
+ * operations that scan the whole cache, the filter matches 10% of the keys
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EHCacheScanBenchmark {
+
+	private static final CacheKeyFilter FILTER = new PrefixFilter("group3-");
+	private static final CacheEntryFilter ENTRY_FILTER = new PrefixFilter("group3-");
+
+	/**
+	 * puts back what the last remove took away, so every invocation works on a full cache
+	 */
+	@State(Scope.Thread)
+	public static class Refill {
+		@Setup(Level.Invocation)
+		public void refill(CacheState state) {
+			for (int i = 3; i < state.entries; i += 10) {
+				state.cache.put(state.keys[i], state.value, null, null);
+			}
+		}
+	}
+
+	@Benchmark
+	public List<String> keys(CacheState state) throws IOException {
+		return state.cache.keys(FILTER);
+	}
+
+	/**
+	 * full dump, heap only caches walk the elements of the store
+	 */
+	@Benchmark
+	public List<?> values(CacheState state) throws IOException {
+		return state.cache.values();
+	}
+
+	/**
+	 * entry filters need the entry of every key, java filters of the core run on the pool, closures on the calling thread
+	 * (they need its page context)
+	 */
+	@Benchmark
+	public List<?> valuesByEntry(CacheState state) throws IOException {
+		return state.cache.values(ENTRY_FILTER);
+	}
+
+	/**
+	 * a caller that only needs one match stops the walk early
+	 */
+	@Benchmark
+	public String firstKey(CacheState state) throws IOException {
+		Iterator<String> it = state.cache.keyIterator(FILTER);
+		return it.hasNext() ? it.next() : null;
+	}
+
+	/**
+	 * what cacheCount does, it lists all keys to count them
+	 */
+	@Benchmark
+	public int countKeys(CacheState state) throws IOException {
+		return state.cache.keys().size();
+	}
+
+	@Benchmark
+	public int size(CacheState state) {
+		return state.cache.size(false);
+	}
+
+	@Benchmark
+	public int remove(CacheState state, Refill refill) throws IOException {
+		return state.cache.remove(FILTER);
+	}
+}
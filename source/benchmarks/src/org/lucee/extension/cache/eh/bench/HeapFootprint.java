@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.lucee.extension.cache.eh.EHCache;
+
+import lucee.runtime.type.Struct;
+
+/**
+ * heap used per entry of a local cache that keeps the values themselves compared with one that stores
+ * them serialized ("storeserialized"), every entry gets a value of its own.
+ * <p>
+ * The structs of the stub engine are not the ones of the engine (every key is a proxy of its own), so
+ * the numbers for the stored objects are higher than in a server, the serialized ones are the same.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar org.lucee.extension.cache.eh.bench.HeapFootprint [entries]
+ * </pre>
+ */
+public final class HeapFootprint {
+
+	private HeapFootprint() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		int entries = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		File dir = Files.createTempDirectory("ehcache-bench").toFile();
+		dir.deleteOnExit();
+		StubEngine.install(dir);
+
+		measure("reference", entries, false, 0, 0);
+		measure("serialized", entries, true, 0, 0);
+		measure("serialized, compressed", entries, true, 512, 0);
+		measure("serialized, 100 decoded", entries, true, 0, 100);
+	}
+
+	private static void measure(String label, int entries, boolean storeSerialized, int compressionThreshold,
+			int decodedCacheSize) {
+		Struct args = StubEngine.struct();
+		args.setEL("eternal", "true");
+		args.setEL("maxelementsinmemory", String.valueOf(entries));
+		args.setEL("memoryevictionpolicy", "LRU");
+		args.setEL("overflowtodisk", "false");
+		args.setEL("diskpersistent", "false");
+		args.setEL("distributed", "off");
+		args.setEL("storeserialized", String.valueOf(storeSerialized));
+		args.setEL("compressionthreshold", String.valueOf(compressionThreshold));
+		args.setEL("decodedcachesize", String.valueOf(decodedCacheSize));
+
+		EHCache cache = new EHCache();
+		try {
+			cache.init("heap_" + label.replaceAll("\\W", "_"), args);
+			long before = usedHeap();
+			for (int i = 0; i < entries; i++) {
+				cache.put("key-" + i, Values.nested(2, 4), null, null);
+			}
+			// fill the decoded values kept
+			for (int i = 0; i < entries; i++) {
+				cache.getValue("key-" + i, null);
+			}
+			long used = usedHeap() - before;
+			System.out.println(String.format("%-26s %8d bytes/entry (%d entries)", label, used / entries, entries));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			cache.release();
+		}
+	}
+
+	private static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		// the minimum of a few collections, a single one does not always get everything
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			used = Math.min(used, rt.totalMemory() - rt.freeMemory());
+		}
+		return used;
+	}
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.lucee.extension.cache.eh.bench;
+
+import lucee.commons.io.cache.CacheEntry;
+import lucee.commons.io.cache.CacheEntryFilter;
+import lucee.commons.io.cache.CacheKeyFilter;
+
+/**
+ * matches all keys (or entries with a key) starting with the given prefix, same as a wildcard filter
+ * "prefix*"
+ */
+public final class PrefixFilter implements CacheKeyFilter, CacheEntryFilter {
+
+	private final String prefix;
+
+	public PrefixFilter(String prefix) {
+		this.prefix = prefix;
+	}
+
+	@Override
+	public boolean accept(String key) {
+		return key.regionMatches(true, 0, prefix, 0, prefix.length());
+	}
+
+	@Override
+	public boolean accept(CacheEntry entry) {
+		return accept(entry.getKey());
+	}
+
+	@Override
+	public String toPattern() {
+		return prefix + "*";
+	}
+}
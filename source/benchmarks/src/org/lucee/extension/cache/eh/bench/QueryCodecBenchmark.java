@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.lucee.extension.cache.eh.util.TypeUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import lucee.runtime.type.Collection.Key;
+import lucee.runtime.type.Query;
+
+/**
+ * conversion of a cached query result. The payload size is printed with the setup, next to the size of
+ * the same cells java serialized row by row, what a query written as plain java object costs at least.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryCodecBenchmark {
+
+	@Param({ "100", "10000" })
+	public int rows;
+
+	private Query qry;
+	private Object jvm;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		File dir = Files.createTempDirectory("ehcache-bench").toFile();
+		dir.deleteOnExit();
+		StubEngine.install(dir);
+		qry = Values.query(rows);
+		jvm = TypeUtil.toJVM(qry);
+
+		Key[] columns = qry.getColumnNames();
+		Object[][] cells = new Object[rows][columns.length];
+		for (int row = 1; row <= rows; row++) {
+			for (int i = 0; i < columns.length; i++) {
+				cells[row - 1][i] = qry.getAt(columns[i], row, null);
+			}
+		}
+		System.out.println("payload size: " + ((byte[]) jvm).length + " bytes, row by row: " + serialize(cells).length + " bytes");
+	}
+
+	@Benchmark
+	public Object toJVM() {
+		return TypeUtil.toJVM(qry);
+	}
+
+	@Benchmark
+	public Object toCFML() {
+		return TypeUtil.toCFML(jvm);
+	}
+
+	private static byte[] serialize(Object value) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+			oos.writeObject(value);
+		}
+		return baos.toByteArray();
+	}
+}
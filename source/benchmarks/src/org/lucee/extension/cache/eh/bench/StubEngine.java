@@ -0,0 +1,536 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.lucee.extension.cache.eh.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import lucee.commons.io.log.Log;
+import lucee.commons.io.res.Resource;
+import lucee.commons.io.res.filter.ResourceFilter;
+import lucee.commons.io.res.filter.ResourceNameFilter;
+import lucee.commons.lang.types.RefBoolean;
+import lucee.loader.engine.CFMLEngine;
+import lucee.loader.engine.CFMLEngineFactory;
+import lucee.runtime.config.Config;
+import lucee.runtime.type.Array;
+import lucee.runtime.type.Collection.Key;
+import lucee.runtime.type.Query;
+import lucee.runtime.type.Struct;
+import lucee.runtime.util.Cast;
+import lucee.runtime.util.Creation;
+import lucee.runtime.util.Excepton;
+import lucee.runtime.util.ListUtil;
+import lucee.runtime.util.SystemUtil;
+
+/**
+ * minimal engine for the benchmarks, it only implements what the extension touches on the paths
+ * that get measured, everything else answers with null/0/false. The Lucee types (Struct, Array,
+ * Key, Resource ...) are dynamic proxies over plain java collections and {@link File}.
+ */
+public final class StubEngine {
+
+	private static final Object UNHANDLED = new Object();
+	private static volatile File configDir;
+	private static CFMLEngine engine;
+
+	private StubEngine() {
+	}
+
+	/**
+	 * registers the stub engine (once per jvm) and points the config directory to the given
+	 * directory, so every benchmark trial gets its own ehcache manager
+	 */
+	public static synchronized void install(File dir) {
+		configDir = dir;
+		if (engine != null)
+			return;
+
+		final Log log = proxy(Log.class, (name, args) -> UNHANDLED);
+		final Config config = proxy(Config.class, (name, args) -> {
+			if ("getConfigDir".equals(name))
+				return resource(configDir);
+			if ("getLog".equals(name))
+				return log;
+			return UNHANDLED;
+		});
+		final Creation creation = proxy(Creation.class, (name, args) -> {
+			if ("createStruct".equals(name))
+				return struct();
+			if ("createArray".equals(name) && args == null)
+				return array();
+			if ("createQuery".equals(name) && args[0] instanceof Key[])
+				return query((Key[]) args[0], args.length == 4 ? (String[]) args[1] : null, (Integer) args[args.length - 2],
+						(String) args[args.length - 1]);
+			if ("createKey".equals(name))
+				return key((String) args[0]);
+			if ("createRefBoolean".equals(name))
+				return refBoolean(args != null && args.length == 1 && Boolean.TRUE.equals(args[0]));
+			return UNHANDLED;
+		});
+		final Cast cast = proxy(Cast.class, (name, args) -> {
+			if ("toCharset".equals(name))
+				return Charset.forName((String) args[0]);
+			if ("toString".equals(name) && args != null)
+				return String.valueOf(args[0]);
+			return UNHANDLED;
+		});
+		final SystemUtil system = proxy(SystemUtil.class, (name, args) -> {
+			if ("hashMd5".equals(name) && args[0] instanceof String)
+				return md5((String) args[0]);
+			return UNHANDLED;
+		});
+		final Excepton exception = proxy(Excepton.class, (name, args) -> {
+			if ("toIOException".equals(name))
+				return new IOException((Throwable) args[0]);
+			return UNHANDLED;
+		});
+		final ListUtil list = proxy(ListUtil.class, (name, args) -> {
+			if ("toList".equals(name) && args[0] instanceof String[])
+				return String.join((String) args[1], (String[]) args[0]);
+			return UNHANDLED;
+		});
+
+		engine = proxy(CFMLEngine.class, (name, args) -> {
+			switch (name) {
+			case "getThreadConfig":
+				return config;
+			case "getCreationUtil":
+				return creation;
+			case "getCastUtil":
+				return cast;
+			case "getSystemUtil":
+				return system;
+			case "getExceptionUtil":
+				return exception;
+			case "getListUtil":
+				return list;
+			}
+			return UNHANDLED;
+		});
+		CFMLEngineFactory.registerInstance(engine);
+	}
+
+	public static Struct struct() {
+		return proxy(Struct.class, new StructHandler());
+	}
+
+	public static Array array() {
+		return proxy(Array.class, new ArrayHandler());
+	}
+
+	public static Query query(Key[] columns, String[] types, int rows, String name) {
+		return proxy(Query.class, new QueryHandler(columns, types, rows, name));
+	}
+
+	public static Key key(String str) {
+		return proxy(Key.class, new KeyHandler(str));
+	}
+
+	private static RefBoolean refBoolean(boolean initial) {
+		final boolean[] value = new boolean[] { initial };
+		return proxy(RefBoolean.class, (name, args) -> {
+			if ("setValue".equals(name)) {
+				value[0] = (Boolean) args[0];
+				return null;
+			}
+			if ("toBooleanValue".equals(name) || "toBoolean".equals(name))
+				return value[0];
+			return UNHANDLED;
+		});
+	}
+
+	private static Resource resource(File file) {
+		return proxy(Resource.class, new ResourceHandler(file));
+	}
+
+	private static String md5(String str) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(str.getBytes(StandardCharsets.UTF_8));
+			StringBuilder sb = new StringBuilder(32);
+			for (byte b : digest) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return sb.toString();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(Class<T> type, Handler handler) {
+		return (T) Proxy.newProxyInstance(StubEngine.class.getClassLoader(), new Class[] { type },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						Object result;
+						try {
+							result = handler.invoke(method.getName(), args);
+						} catch (InvocationTargetException ite) {
+							throw ite.getTargetException();
+						}
+						if (result != UNHANDLED)
+							return result;
+
+						// java.lang.Object
+						if ("equals".equals(method.getName()) && args != null && args.length == 1)
+							return proxy == args[0];
+						if ("hashCode".equals(method.getName()) && args == null)
+							return System.identityHashCode(proxy);
+						if ("toString".equals(method.getName()) && args == null)
+							return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+						return defaultValue(method.getReturnType());
+					}
+				});
+	}
+
+	private static Object defaultValue(Class<?> type) {
+		if (!type.isPrimitive() || type == void.class)
+			return null;
+		if (type == boolean.class)
+			return Boolean.FALSE;
+		if (type == char.class)
+			return Character.valueOf((char) 0);
+		if (type == byte.class)
+			return Byte.valueOf((byte) 0);
+		if (type == short.class)
+			return Short.valueOf((short) 0);
+		if (type == int.class)
+			return Integer.valueOf(0);
+		if (type == long.class)
+			return Long.valueOf(0L);
+		if (type == float.class)
+			return Float.valueOf(0F);
+		return Double.valueOf(0D);
+	}
+
+	private static String toKey(Object key) {
+		return key instanceof Key ? ((Key) key).getString() : String.valueOf(key);
+	}
+
+	private interface Handler {
+		Object invoke(String name, Object[] args) throws Throwable;
+	}
+
+	private static final class KeyHandler implements Handler {
+		private final String str;
+		private final String lower;
+
+		private KeyHandler(String str) {
+			this.str = str;
+			this.lower = str.toLowerCase(Locale.ENGLISH);
+		}
+
+		@Override
+		public Object invoke(String name, Object[] args) {
+			switch (name) {
+			case "getString":
+			case "toString":
+				return str;
+			case "getLowerString":
+				return lower;
+			case "getUpperString":
+				return str.toUpperCase(Locale.ENGLISH);
+			case "hashCode":
+				return lower.hashCode();
+			case "length":
+				return str.length();
+			case "charAt":
+				return str.charAt((Integer) args[0]);
+			case "equals":
+			case "equalsIgnoreCase":
+				return args[0] instanceof Key && lower.equals(((Key) args[0]).getLowerString());
+			}
+			return UNHANDLED;
+		}
+	}
+
+	/**
+	 * case insensitive struct that keeps the insertion order
+	 */
+	private static final class StructHandler implements Handler {
+		private final Map<String, Entry<Key, Object>> map = new LinkedHashMap<String, Entry<Key, Object>>();
+
+		@Override
+		public Object invoke(String name, Object[] args) {
+			int len = args == null ? 0 : args.length;
+			switch (name) {
+			case "size":
+				return map.size();
+			case "isEmpty":
+				return map.isEmpty();
+			case "clear":
+				map.clear();
+				return null;
+			case "setEL":
+			case "set":
+			case "put":
+				if (len == 2) {
+					Key k = args[0] instanceof Key ? (Key) args[0] : key(String.valueOf(args[0]));
+					map.put(k.getLowerString(), new SimpleEntry<Key, Object>(k, args[1]));
+					return args[1];
+				}
+				break;
+			case "get":
+				if (len == 1 || len == 2) {
+					Entry<Key, Object> e = map.get(toKey(args[0]).toLowerCase(Locale.ENGLISH));
+					return e != null ? e.getValue() : (len == 2 ? args[1] : null);
+				}
+				break;
+			case "containsKey":
+				return map.containsKey(toKey(args[0]).toLowerCase(Locale.ENGLISH));
+			case "remove":
+			case "removeEL":
+				if (len == 1) {
+					Entry<Key, Object> e = map.remove(toKey(args[0]).toLowerCase(Locale.ENGLISH));
+					return e == null ? null : e.getValue();
+				}
+				break;
+			case "keys": {
+				Key[] keys = new Key[map.size()];
+				int i = 0;
+				for (Entry<Key, Object> e : map.values()) {
+					keys[i++] = e.getKey();
+				}
+				return keys;
+			}
+			case "keyIterator":
+				return map(e -> e.getKey());
+			case "keysAsStringIterator":
+				return map(e -> e.getKey().getString());
+			case "valueIterator":
+				return map(e -> e.getValue());
+			case "entryIterator":
+			case "iterator":
+				return map(e -> e);
+			}
+			return UNHANDLED;
+		}
+
+		private <T> Iterator<T> map(java.util.function.Function<Entry<Key, Object>, T> fn) {
+			final Iterator<Entry<Key, Object>> it = map.values().iterator();
+			return new Iterator<T>() {
+				@Override
+				public boolean hasNext() {
+					return it.hasNext();
+				}
+
+				@Override
+				public T next() {
+					return fn.apply(it.next());
+				}
+			};
+		}
+	}
+
+	/**
+	 * one based array
+	 */
+	private static final class ArrayHandler implements Handler {
+		private final List<Object> list = new ArrayList<Object>();
+
+		@Override
+		public Object invoke(String name, Object[] args) {
+			int len = args == null ? 0 : args.length;
+			switch (name) {
+			case "size":
+				return list.size();
+			case "clear":
+				list.clear();
+				return null;
+			case "append":
+			case "appendEL":
+				list.add(args[0]);
+				return args[0];
+			case "get":
+				if (len == 2 && args[0] instanceof Integer) {
+					int index = (Integer) args[0];
+					return index < 1 || index > list.size() ? args[1] : list.get(index - 1);
+				}
+				break;
+			case "getE":
+				return list.get((Integer) args[0] - 1);
+			case "setE":
+			case "setEL":
+				if (args[0] instanceof Integer) {
+					int index = (Integer) args[0];
+					while (list.size() < index)
+						list.add(null);
+					list.set(index - 1, args[1]);
+					return args[1];
+				}
+				break;
+			case "valueIterator":
+			case "iterator":
+				return list.iterator();
+			}
+			return UNHANDLED;
+		}
+	}
+
+	/**
+	 * query with a fixed number of rows, cells are stored column by column
+	 */
+	private static final class QueryHandler implements Handler {
+		private final Key[] columns;
+		private final Map<String, Object[]> data = new HashMap<String, Object[]>();
+		private final Map<Key, String> types = new LinkedHashMap<Key, String>();
+		private final int rows;
+		private final String name;
+		private long executionTime;
+
+		private QueryHandler(Key[] columns, String[] types, int rows, String name) {
+			this.columns = columns;
+			this.rows = rows;
+			this.name = name;
+			for (int i = 0; i < columns.length; i++) {
+				data.put(columns[i].getLowerString(), new Object[rows]);
+				this.types.put(columns[i], types == null ? "VARCHAR" : types[i]);
+			}
+		}
+
+		@Override
+		public Object invoke(String name, Object[] args) {
+			switch (name) {
+			case "getColumnNames":
+			case "keys":
+				return columns.clone();
+			case "getRecordcount":
+			case "getRowCount":
+				return rows;
+			case "size":
+				return columns.length;
+			case "getName":
+				return this.name;
+			case "getTypesAsMap":
+				return types;
+			case "getExecutionTime":
+				return executionTime;
+			case "setExecutionTime":
+				executionTime = (Long) args[0];
+				return null;
+			case "getAt":
+				if (args.length == 3) {
+					Object[] column = data.get(toKey(args[0]).toLowerCase(Locale.ENGLISH));
+					int row = (Integer) args[1];
+					return column == null || row < 1 || row > rows ? args[2] : column[row - 1];
+				}
+				break;
+			case "setAtEL":
+				data.get(toKey(args[0]).toLowerCase(Locale.ENGLISH))[(Integer) args[1] - 1] = args[2];
+				return args[2];
+			}
+			return UNHANDLED;
+		}
+	}
+
+	/**
+	 * resource backed by the local filesystem
+	 */
+	private static final class ResourceHandler implements Handler {
+		private final File file;
+
+		private ResourceHandler(File file) {
+			this.file = file;
+		}
+
+		@Override
+		public Object invoke(String name, Object[] args) throws IOException {
+			int len = args == null ? 0 : args.length;
+			switch (name) {
+			case "getRealResource":
+				return resource(new File(file, (String) args[0]));
+			case "getParentResource":
+				return file.getParentFile() == null ? null : resource(file.getParentFile());
+			case "getName":
+				return file.getName();
+			case "getPath":
+			case "getAbsolutePath":
+			case "toString":
+				return file.getAbsolutePath();
+			case "exists":
+				return file.exists();
+			case "isDirectory":
+				return file.isDirectory();
+			case "isFile":
+				return file.isFile();
+			case "length":
+				return file.length();
+			case "lastModified":
+				return file.lastModified();
+			case "createDirectory":
+				if (!file.isDirectory() && !file.mkdirs())
+					throw new IOException("could not create directory [" + file + "]");
+				return null;
+			case "delete":
+			case "remove":
+				file.delete();
+				return len == 0 ? Boolean.TRUE : null;
+			case "moveTo": {
+				File trg = new File(((Resource) args[0]).getAbsolutePath());
+				if (!file.renameTo(trg))
+					throw new IOException("could not move [" + file + "] to [" + trg + "]");
+				return null;
+			}
+			case "getOutputStream":
+				return new FileOutputStream(file, len == 1 && Boolean.TRUE.equals(args[0]));
+			case "getInputStream":
+				return new FileInputStream(file);
+			case "hashCode":
+				return file.hashCode();
+			case "equals":
+				return args[0] instanceof Resource && file.getAbsolutePath().equals(((Resource) args[0]).getAbsolutePath());
+			case "listResources": {
+				File[] children = file.listFiles();
+				if (children == null)
+					return null;
+				List<Resource> list = new ArrayList<Resource>();
+				Resource self = resource(file);
+				for (File child : children) {
+					Resource res = resource(child);
+					if (len == 1 && args[0] instanceof ResourceNameFilter && !((ResourceNameFilter) args[0]).accept(self, child.getName()))
+						continue;
+					if (len == 1 && args[0] instanceof ResourceFilter && !((ResourceFilter) args[0]).accept(res))
+						continue;
+					list.add(res);
+				}
+				return list.toArray(new Resource[list.size()]);
+			}
+			}
+			return UNHANDLED;
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.lucee.extension.cache.eh.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.lucee.extension.cache.eh.codec.Serializers;
+import org.lucee.extension.cache.eh.codec.ValueSerializer;
+import org.lucee.extension.cache.eh.util.TypeUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import lucee.runtime.type.Struct;
+
+/**
+ * conversion done for every put/get on a serialized cache, the conversion itself does not depend on
+ * the cache mode. serialize/deserialize add the java serialization done by the disk store and RMI
+ * (the payload size is printed with the setup).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TypeUtilBenchmark {
+
+	@Param({ "1", "3" })
+	public int depth;
+
+	@Param({ "binary", "java", "json" })
+	public String serializer;
+
+	private ValueSerializer vs;
+	private Struct cfml;
+	private Object jvm;
+	private byte[] serialized;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		File dir = Files.createTempDirectory("ehcache-bench").toFile();
+		dir.deleteOnExit();
+		StubEngine.install(dir);
+		vs = Serializers.forName(serializer);
+		cfml = Values.nested(depth, 4);
+		jvm = TypeUtil.toJVM(cfml, vs);
+		serialized = serialize(jvm);
+		System.out.println("payload size: " + serialized.length + " bytes");
+	}
+
+	@Benchmark
+	public Object toJVM() {
+		return TypeUtil.toJVM(cfml, vs);
+	}
+
+	@Benchmark
+	public Object toCFML() {
+		return TypeUtil.toCFML(jvm);
+	}
+
+	@Benchmark
+	public byte[] serialize() throws IOException {
+		return serialize(TypeUtil.toJVM(cfml, vs));
+	}
+
+	@Benchmark
+	public Object deserialize() throws IOException, ClassNotFoundException {
+		try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+			return TypeUtil.toCFML(ois.readObject());
+		}
+	}
+
+	private static byte[] serialize(Object value) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+			oos.writeObject(value);
+		}
+		return baos.toByteArray();
+	}
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.lucee.extension.cache.eh.bench;
+
+import lucee.runtime.type.Array;
+import lucee.runtime.type.Collection.Key;
+import lucee.runtime.type.Query;
+import lucee.runtime.type.Struct;
+
+/**
+ * test values shaped like typical cached application data
+ */
+public final class Values {
+
+	private Values() {
+	}
+
+	/**
+	 * struct with simple values, an array and (up to the given depth) nested structs
+	 */
+	public static Struct nested(int depth, int width) {
+		Struct sct = StubEngine.struct();
+		for (int i = 0; i < width; i++) {
+			sct.setEL("string" + i, "value " + i);
+			sct.setEL("number" + i, Double.valueOf(i));
+		}
+		sct.setEL("flag", Boolean.TRUE);
+
+		Array arr = StubEngine.array();
+		for (int i = 0; i < width; i++) {
+			arr.appendEL("item " + i);
+		}
+		sct.setEL("list", arr);
+
+		if (depth > 0) {
+			for (int i = 0; i < width; i++) {
+				sct.setEL("child" + i, nested(depth - 1, width));
+			}
+		}
+		return sct;
+	}
+
+	/**
+	 * query like a typical select: id, unique and repeating strings, numbers, flags and a sparse column
+	 */
+	public static Query query(int rows) {
+		Key id = StubEngine.key("id"), name = StubEngine.key("name"), status = StubEngine.key("status"), price = StubEngine.key("price"),
+				active = StubEngine.key("active"), note = StubEngine.key("note");
+		Query qry = StubEngine.query(new Key[] { id, name, status, price, active, note },
+				new String[] { "INTEGER", "VARCHAR", "VARCHAR", "DOUBLE", "BIT", "VARCHAR" }, rows, "qry");
+		String[] states = new String[] { "new", "open", "closed" };
+		for (int row = 1; row <= rows; row++) {
+			qry.setAtEL(id, row, Double.valueOf(row));
+			qry.setAtEL(name, row, "customer " + row);
+			qry.setAtEL(status, row, states[row % states.length]);
+			qry.setAtEL(price, row, Double.valueOf(row * 1.25));
+			qry.setAtEL(active, row, row % 2 == 0 ? Boolean.TRUE : Boolean.FALSE);
+			if (row % 10 == 0)
+				qry.setAtEL(note, row, "note " + row);
+		}
+		return qry;
+	}
+}
@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import lucee.commons.io.cache.CacheEntry;
 import lucee.commons.io.cache.CacheEntryFilter;
@@ -38,17 +39,18 @@ public abstract class CacheSupport implements CachePro {
 
 	@Override
 	public List<String> keys(CacheKeyFilter filter) throws IOException {
-		boolean all=CacheUtil.allowAll(filter);
-		
-		List<String> keys = keys();
-		List<String> list=new ArrayList<String>();
-		Iterator<String> it = keys.iterator();
-		String key;
-		while(it.hasNext()){
-			key= it.next();
-			if(all || filter.accept(key))list.add(key);
+		long start=System.nanoTime();
+		try {
+			List<String> list=new ArrayList<String>();
+			Iterator<String> it = keyIterator(CacheUtil.allowAll(filter)?null:filter);
+			while(it.hasNext()){
+				list.add(it.next());
+			}
+			return list;
+		}
+		finally {
+			scanned(start);
 		}
-		return list;
 	}
 	
 	@Override
@@ -58,149 +60,211 @@ public abstract class CacheSupport implements CachePro {
 
 	@Override
 	public List<String> keys(CacheEntryFilter filter) throws IOException {
-		boolean all=CacheUtil.allowAll(filter);
-		
-		List<String> keys = keys();
-		List<String> list=new ArrayList<String>();
-		Iterator<String> it = keys.iterator();
-		String key;
-		CacheEntry entry;
-		while(it.hasNext()){
-			key=it.next();
-			entry=getQuiet(key,null);
-			if(all || filter.accept(entry))list.add(key);
+		long start=System.nanoTime();
+		try {
+			List<String> list=new ArrayList<String>();
+			Iterator<CacheEntry> it = scan(CacheUtil.allowAll(filter)?null:filter).iterator();
+			while(it.hasNext()){
+				list.add(it.next().getKey());
+			}
+			return list;
+		}
+		finally {
+			scanned(start);
 		}
-		return list;
 	}
 	
 	@Override
 	public List<CacheEntry> entries() throws IOException {
-		List<String> keys = keys();
-		List<CacheEntry> list=new ArrayList<CacheEntry>();
-		Iterator<String> it = keys.iterator();
-		while(it.hasNext()){
-			list.add(getQuiet(it.next(),null));
-		}
-		return list;
+		return entries((CacheKeyFilter)null);
 	}
 	
 	@Override
 	public List<CacheEntry> entries(CacheKeyFilter filter) throws IOException {
-		List<String> keys = keys();
-		List<CacheEntry> list=new ArrayList<CacheEntry>();
-		Iterator<String> it = keys.iterator();
-		String key;
-		while(it.hasNext()){
-			key=it.next();
-			if(filter.accept(key))list.add(getQuiet(key,null));
+		long start=System.nanoTime();
+		try {
+			return toList(entryIterator(filter,null));
+		}
+		finally {
+			scanned(start);
 		}
-		return list;
 	}
 	
 	@Override
 	public List<CacheEntry> entries(CacheEntryFilter filter) throws IOException {
-		List<String> keys = keys();
-		List<CacheEntry> list=new ArrayList<CacheEntry>();
-		Iterator<String> it = keys.iterator();
-		CacheEntry entry;
-		while(it.hasNext()){
-			entry=getQuiet(it.next(),null);
-			if(filter.accept(entry))list.add(entry);
+		long start=System.nanoTime();
+		try {
+			return scan(CacheUtil.allowAll(filter)?null:filter);
+		}
+		finally {
+			scanned(start);
 		}
-		return list;
 	}
 
 	// there was the wrong generic type defined in the older interface, because of that we do not define a generic type at all here, just to be sure
 	@Override
 	public List values() throws IOException {
-		List<String> keys = keys();
-		List<Object> list=new ArrayList<Object>();
-		Iterator<String> it = keys.iterator();
-		String key;
-		while(it.hasNext()){
-			key=it.next();
-			list.add(getQuiet(key,null).getValue());
-		}
-		return list;
+		return values((CacheKeyFilter)null);
 	}
 
 	// there was the wrong generic type defined in the older interface, because of that we do not define a generic type at all here, just to be sure
 	@Override
 	public List values(CacheEntryFilter filter) throws IOException {
-		if(CacheUtil.allowAll(filter)) return values();
-
-		List<String> keys = keys();
-		List<Object> list=new ArrayList<Object>();
-		Iterator<String> it = keys.iterator();
-		String key;
-		CacheEntry entry;
-		while(it.hasNext()){
-			key=it.next();
-			entry=getQuiet(key,null);
-			if(filter.accept(entry))list.add(entry.getValue());
+		long start=System.nanoTime();
+		try {
+			return toValues(scan(CacheUtil.allowAll(filter)?null:filter).iterator());
+		}
+		finally {
+			scanned(start);
 		}
-		return list;
 	}
 
 	// there was the wrong generic type defined in the older interface, because of that we do not define a generic type at all here, just to be sure
 	@Override
 	public List values(CacheKeyFilter filter) throws IOException {
-		if(CacheUtil.allowAll(filter)) return values();
-
-		List<String> keys = keys();
-		List<Object> list=new ArrayList<Object>();
-		Iterator<String> it = keys.iterator();
-		String key;
-		while(it.hasNext()){
-			key=it.next();
-			if(filter.accept(key))list.add(getQuiet(key,null).getValue());
+		long start=System.nanoTime();
+		try {
+			return toValues(entryIterator(CacheUtil.allowAll(filter)?null:filter,null));
+		}
+		finally {
+			scanned(start);
 		}
-		return list;
 	}
 	
 	@Override
 	public int remove(CacheEntryFilter filter) throws IOException {
-		if(CacheUtil.allowAll(filter)) return clear();
+		long start=System.nanoTime();
+		try {
+			if(CacheUtil.allowAll(filter)) return clear();
 
-		List<String> keys = keys();
-		int count=0;
-		Iterator<String> it = keys.iterator();
-		String key;
-		CacheEntry entry;
-		while(it.hasNext()){
-			key=it.next();
-			entry=getQuiet(key,null);
-			if(filter==null || filter.accept(entry)){
-				remove(key);
-				count++;
+			List<String> matches=new ArrayList<String>();
+			Iterator<CacheEntry> it = scan(filter).iterator();
+			while(it.hasNext()){
+				matches.add(it.next().getKey());
 			}
+			return removeAll(matches);
+		}
+		finally {
+			scanned(start);
 		}
-		return count;
 	}
 	
 
 	@Override
 	public int remove(CacheKeyFilter filter) throws IOException {
-		if(CacheUtil.allowAll(filter)) return clear();
+		long start=System.nanoTime();
+		try {
+			if(CacheUtil.allowAll(filter)) return clear();
 
-		List<String> keys = keys();
-		int count=0;
+			List<String> matches=new ArrayList<String>();
+			Iterator<String> it = keyIterator(filter);
+			while(it.hasNext()){
+				matches.add(it.next());
+			}
+			return removeAll(matches);
+		}
+		finally {
+			scanned(start);
+		}
+	}
+
+	/**
+	 * lazily walks the keys of the cache, the filter is applied while walking and only keys that pass it are checked for expiration,
+	 * callers can stop at any time
+	 * @param filter filter for the keys, null for all keys
+	 */
+	public Iterator<String> keyIterator(CacheKeyFilter filter) throws IOException {
+		return new KeyIterator(this,rawKeys(filter).iterator(),filter);
+	}
+
+	/**
+	 * lazily walks the entries of the cache, the key filter is applied before an entry is loaded, expired entries are skipped,
+	 * callers can stop at any time
+	 * @param keyFilter filter for the keys, null for all keys
+	 * @param entryFilter filter for the entries, null for all entries
+	 */
+	public Iterator<CacheEntry> entryIterator(CacheKeyFilter keyFilter, CacheEntryFilter entryFilter) throws IOException {
+		return new EntryIterator(this,rawKeys(keyFilter).iterator(),keyFilter,entryFilter);
+	}
+
+	/**
+	 * keys to walk for a scan, they may contain expired keys, default is keys()
+	 */
+	protected List<String> rawKeys() throws IOException {
+		return keys();
+	}
+
+	/**
+	 * keys to walk for a scan with the given key filter, implementations with an index can return a subset here,
+	 * the scan still applies the filter to every key, default is rawKeys()
+	 * @param filter filter for the keys, null for all keys
+	 */
+	protected List<String> rawKeys(CacheKeyFilter filter) throws IOException {
+		return rawKeys();
+	}
+
+	/**
+	 * @return false if the key returned by rawKeys() is expired or gone in the meantime
+	 */
+	protected boolean alive(String key) {
+		return true;
+	}
+
+	/**
+	 * @return the entry of a key returned by rawKeys() or null if it is expired or gone in the meantime
+	 */
+	protected CacheEntry scanEntry(String key) {
+		return getQuiet(key,null);
+	}
+
+	/**
+	 * the entries accepted by the filter, expired entries are skipped. the filter is called on the calling thread,
+	 * it can be a closure that needs the page context of the caller
+	 * @param filter filter for the entries, null for all entries
+	 */
+	protected List<CacheEntry> scan(CacheEntryFilter filter) throws IOException {
+		return toList(entryIterator(null,filter));
+	}
+
+	private static List<CacheEntry> toList(Iterator<CacheEntry> it) {
+		List<CacheEntry> list=new ArrayList<CacheEntry>();
+		while(it.hasNext()){
+			list.add(it.next());
+		}
+		return list;
+	}
+
+	private static List<Object> toValues(Iterator<CacheEntry> it) {
+		List<Object> list=new ArrayList<Object>();
+		while(it.hasNext()){
+			list.add(it.next().getValue());
+		}
+		return list;
+	}
+
+	/**
+	 * removes the given keys, caches that support it override this with a bulk operation
+	 * @return number of removed keys
+	 */
+	protected int removeAll(List<String> keys) throws IOException {
 		Iterator<String> it = keys.iterator();
-		String key;
 		while(it.hasNext()){
-			key=it.next();
-			if(filter==null || filter.accept(key)){
-				remove(key);
-				count++;
-			}
+			remove(it.next());
 		}
-		return count;
+		return keys.size();
 	}
 	
 	@Override
 	public Struct getCustomInfo() {
 		return CacheUtil.getInfo(this);
 	}
+
+	/**
+	 * called after every scan, implementations that measure their operations record it here, default does nothing
+	 * @param start System.nanoTime() at the start of the scan
+	 */
+	protected void scanned(long start) {
+	}
 	
 
 	@Override
@@ -252,4 +316,73 @@ public abstract class CacheSupport implements CachePro {
 	 */
 	public abstract int clear() throws IOException ;
 
+	private static abstract class ScanIterator<T> implements Iterator<T> {
+		
+		final CacheSupport cache;
+		private final Iterator<String> keys;
+		private T next;
+
+		ScanIterator(CacheSupport cache, Iterator<String> keys) {
+			this.cache=cache;
+			this.keys=keys;
+		}
+
+		/**
+		 * @return the value for the key or null to skip it
+		 */
+		abstract T accept(String key);
+
+		@Override
+		public boolean hasNext() {
+			while(next==null && keys.hasNext()){
+				next=accept(keys.next());
+			}
+			return next!=null;
+		}
+
+		@Override
+		public T next() {
+			if(!hasNext()) throw new NoSuchElementException();
+			T n=next;
+			next=null;
+			return n;
+		}
+	}
+
+	private static final class KeyIterator extends ScanIterator<String> {
+		
+		private final CacheKeyFilter filter;
+
+		KeyIterator(CacheSupport cache, Iterator<String> keys, CacheKeyFilter filter) {
+			super(cache,keys);
+			this.filter=filter;
+		}
+
+		@Override
+		String accept(String key) {
+			if(key==null || (filter!=null && !filter.accept(key)) || !cache.alive(key)) return null;
+			return key;
+		}
+	}
+
+	private static final class EntryIterator extends ScanIterator<CacheEntry> {
+		
+		private final CacheKeyFilter keyFilter;
+		private final CacheEntryFilter entryFilter;
+
+		EntryIterator(CacheSupport cache, Iterator<String> keys, CacheKeyFilter keyFilter, CacheEntryFilter entryFilter) {
+			super(cache,keys);
+			this.keyFilter=keyFilter;
+			this.entryFilter=entryFilter;
+		}
+
+		@Override
+		CacheEntry accept(String key) {
+			if(key==null || (keyFilter!=null && !keyFilter.accept(key))) return null;
+			CacheEntry entry=cache.scanEntry(key);
+			if(entry==null || (entryFilter!=null && !entryFilter.accept(entry))) return null;
+			return entry;
+		}
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh;
+
+import org.lucee.extension.cache.eh.filter.MissFilter;
+import org.lucee.extension.cache.eh.filter.PrefixIndex;
+import org.lucee.extension.cache.eh.util.Background;
+import org.lucee.extension.cache.eh.util.DecodedValues;
+import org.lucee.extension.cache.eh.util.StoreAccess;
+
+import net.sf.ehcache.Cache;
+
+/**
+ * a resolved ehcache cache together with the state the extension keeps for it, everything in here
+ * lives exactly as long as the ehcache cache and is dropped with it
+ */
+final class CacheHandle {
+
+	final Cache cache;
+	final EHCacheListener listener;
+	// only for caches with a disk tier, null otherwise
+	final MissFilter missFilter;
+	// only if enabled in the cache settings, null otherwise
+	final PrefixIndex prefixIndex;
+	final Namespaces namespaces;
+	// only if enabled in the cache settings and the cache has no disk tier, null otherwise
+	final ProactiveExpiry expiry;
+	// only for caches that store serialized values and keep decoded ones (decodedCacheSize), null
+	// otherwise
+	final DecodedValues decoded;
+
+	CacheHandle(EHCache owner, Cache cache) {
+		this.cache = cache;
+		boolean disk = StoreAccess.hasDiskTier(cache);
+		this.missFilter = disk ? new MissFilter(cache) : null;
+		this.prefixIndex = owner.prefixIndex ? new PrefixIndex(cache) : null;
+		// the disk tier has an expiry thread of its own (diskExpiryThreadIntervalSeconds)
+		this.expiry = owner.proactiveExpiry && !disk ? new ProactiveExpiry(cache) : null;
+		this.namespaces = new Namespaces(cache, this.prefixIndex);
+		// the decoded values are shared by all readers, so they are only kept if asked for
+		this.decoded = owner.decodedCacheSize > 0 && (owner.isSerialized || owner.isDistributed)
+				? new DecodedValues(owner.compression, owner.decodedCacheSize)
+				: null;
+		this.listener = new EHCacheListener(owner, cache, owner.metrics, missFilter, this.prefixIndex, namespaces,
+				expiry, decoded);
+	}
+
+	/**
+	 * registers the listener and starts the background work, called once before the handle gets
+	 * published
+	 */
+	void open() {
+		cache.getCacheEventNotificationService().registerListener(listener);
+		if (missFilter != null)
+			missFilter.rebuild();
+		if (prefixIndex != null)
+			prefixIndex.rebuild();
+		// the cache can hold generations already (disk persistent, bootstrapped or used by another instance)
+		Background.execute(namespaces::load);
+		if (expiry != null)
+			expiry.start();
+	}
+
+	void close() {
+		cache.getCacheEventNotificationService().unregisterListener(listener);
+		if (expiry != null)
+			expiry.stop();
+	}
+}
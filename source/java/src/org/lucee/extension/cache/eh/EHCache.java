@@ -22,17 +22,32 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import org.lucee.extension.cache.eh.codec.Compression;
+import org.lucee.extension.cache.eh.codec.Serializers;
+import org.lucee.extension.cache.eh.filter.MissFilter;
+import org.lucee.extension.cache.eh.filter.PrefixIndex;
+import org.lucee.extension.cache.eh.rmi.RMIBatchReplicator;
+import org.lucee.extension.cache.eh.stats.CacheMetrics;
+import org.lucee.extension.cache.eh.util.Background;
 import org.lucee.extension.cache.eh.util.CacheUtil;
-import org.lucee.extension.cache.eh.util.TypeUtil;
+import org.lucee.extension.cache.eh.util.StoreAccess;
 
 import lucee.commons.io.cache.CacheEntry;
+import lucee.commons.io.cache.CacheKeyFilter;
 import lucee.commons.io.cache.exp.CacheException;
 import lucee.commons.io.log.Log;
 import lucee.commons.io.res.Resource;
@@ -49,6 +64,7 @@ import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Element;
 import net.sf.ehcache.Status;
+import net.sf.ehcache.config.CacheConfiguration;
 import net.sf.ehcache.config.Configuration;
 import net.sf.ehcache.config.ConfigurationFactory;
 import net.sf.ehcache.distribution.RMIBootstrapCacheLoaderFactory;
@@ -81,11 +97,17 @@ public class EHCache extends EHCacheSupport {
 
 	private static Map<String, Map<String, CacheManagerAndHash>> managersColl = new HashMap<String, Map<String, CacheManagerAndHash>>();
 
-	private int hits;
-	private int misses;
 	private String cacheName;
 	private ClassLoader classLoader;
 	private CacheManagerAndHash mah;
+	// resolved cache, dropped by EHCacheListener when ehcache disposes it
+	private volatile CacheHandle handle;
+	// sends the events of bulk operations, only set for distributed caches
+	private RMIBatchReplicator replicator;
+	// keep a sorted index of the keys for prefix wildcard filters
+	boolean prefixIndex;
+	// remove expired elements in the background (heap only caches)
+	boolean proactiveExpiry;
 
 	public static void flushAllCaches() {
 		String[] names;
@@ -493,6 +515,11 @@ public class EHCache extends EHCacheSupport {
 
 		Log log = getLogger();
 		this.cacheName = cacheName = improveCacheName(cacheName);
+		this.prefixIndex = toBooleanValue(arguments.get("prefixindex", Boolean.FALSE), false);
+		this.proactiveExpiry = toBooleanValue(arguments.get("proactiveexpiry", Boolean.FALSE), false);
+		this.serializer = Serializers.forName(toString(arguments.get("serializer", null), null));
+		this.storeSerialized = toBooleanValue(arguments.get("storeserialized", Boolean.FALSE), false);
+		this.decodedCacheSize = Math.max(0, toIntValue(arguments.get("decodedcachesize", null), 0));
 
 		// env stuff
 		System.setProperty("net.sf.ehcache.enableShutdownHook", "true");
@@ -539,18 +566,41 @@ public class EHCache extends EHCacheSupport {
 						REPLICATE_PUTS_VIA_COPY)
 						|| toBooleanValue(arguments.get("replicateUpdatesViaCopy", Boolean.FALSE),
 								REPLICATE_UPDATES_VIA_COPY)) ? true : false;
+				// same settings as the replicator written to the xml
+				this.replicator = new RMIBatchReplicator(
+						toBooleanValue(arguments.get("replicatePuts", Boolean.FALSE), REPLICATE_PUTS),
+						toBooleanValue(arguments.get("replicatePutsViaCopy", Boolean.FALSE), REPLICATE_PUTS_VIA_COPY),
+						toBooleanValue(arguments.get("replicateUpdates", Boolean.FALSE), REPLICATE_UPDATES),
+						toBooleanValue(arguments.get("replicateUpdatesViaCopy", Boolean.FALSE),
+								REPLICATE_UPDATES_VIA_COPY),
+						toBooleanValue(arguments.get("replicateRemovals", Boolean.FALSE), REPLICATE_REMOVALS),
+						toBooleanValue(arguments.get("replicateAsynchronously", Boolean.FALSE), REPLICATE_ASYNC), log);
 			}
 			log.debug("ehcache", "Writing EHCache XML!");
 			// write the xml
 			writeEHCacheXML(hashDir, xml);
 		}
-
+		if (storeSerialized)
+			this.isSerialized = true;
+
+		// only the serialized values are compressed, the elements of other caches are the objects
+		// themselves
+		int compressionThreshold = toIntValue(arguments.get("compressionthreshold", null), 0);
+		this.compression = compressionThreshold > 0 && isSerialized ? new Compression(compressionThreshold) : null;
+		if (compressionThreshold > 0 && !isSerialized)
+			log.info("ehcache", "compression threshold of cache [" + cacheName
+					+ "] is ignored, the cache does not store its elements serialized");
 	}
 
 	public void release() {
 		if (mah == null)
 			return;
-		int remaining = mah.removeCache(cacheName);
+		CacheHandle h = handle;
+		handle = null;
+		if (h != null && h.cache.getStatus() == Status.STATUS_ALIVE) {
+			h.close();
+		}
+		int remaining = mah.removeCache(mah.currentName(cacheName));
 		if (remaining < 1)
 			mah.shutdown();
 
@@ -568,11 +618,28 @@ public class EHCache extends EHCacheSupport {
 
 	@Override
 	protected net.sf.ehcache.Cache getCache() {
+		return handle().cache;
+	}
+
+	private CacheHandle handle() {
 		setClassLoader();
+		CacheHandle h = handle;
+		// a disabled cache was swapped out by a clear (maybe of another instance using the same cache)
+		if (h != null && !h.cache.isDisabled())
+			return h;
+		return resolveCache();
+	}
+
+	private synchronized CacheHandle resolveCache() {
+		CacheHandle h = handle;
+		if (h != null && !h.cache.isDisabled())
+			return h;
+		if (h != null)
+			h.close();
 
 		// we do not create the cache before it is requested
 		CacheManager man = mah.getInstance(true);
-		Cache c = man.getCache(cacheName);
+		Cache c = man.getCache(mah.currentName(cacheName));
 		if (c == null) {
 			man.addCache(cacheName);
 			c = man.getCache(cacheName);
@@ -588,92 +655,362 @@ public class EHCache extends EHCacheSupport {
 									.getListUtil().toList(cm == null ? new String[] {} : cm.getCacheNames(), ", ")
 							+ "]"));
 		}
-		return c;
+
+		h = new CacheHandle(this, c);
+		h.open();
+		handle = h;
+		// the cache may have been disposed while we registered the listener
+		if (c.getStatus() != Status.STATUS_ALIVE)
+			handle = null;
+		return h;
+	}
+
+	void invalidate(Cache c) {
+		CacheHandle h = handle;
+		if (h != null && h.cache == c)
+			handle = null;
+	}
+
+	@Override
+	protected boolean mightContain(String key) {
+		MissFilter filter = handle().missFilter;
+		return filter == null || filter.mightContain(key);
+	}
+
+	@Override
+	protected Predicate<Object> internalKeys() {
+		// the generations of the namespaces
+		return Namespaces::isGeneration;
+	}
+
+	@Override
+	protected int internalCount() {
+		return handle().namespaces.stored();
+	}
+
+	@Override
+	public Struct getCustomInfo() {
+		Struct info = super.getCustomInfo();
+		// the ehcache cache is named differently after a clear swapped it
+		info.setEL("name", cacheName);
+		// caches swapped out by a clear that are not disposed yet
+		info.setEL("swapped_caches", Double.valueOf(mah.swapped(cacheName)));
+		PrefixIndex index = handle().prefixIndex;
+		// keys in the index, removed keys are counted until the next rebuild
+		if (index != null)
+			info.setEL("prefix_index_size", Double.valueOf(index.size()));
+		return info;
+	}
+
+	@Override
+	protected List<String> rawKeys(CacheKeyFilter filter) {
+		PrefixIndex index = handle().prefixIndex;
+		String prefix;
+		if (index != null && (prefix = PrefixIndex.prefix(filter)) != null) {
+			List<String> keys = index.keys(prefix);
+			// null while the index is built
+			if (keys != null)
+				return keys;
+		}
+		return rawKeys();
 	}
 
 	@Override
 	public boolean remove(String key) {
+		long start = System.nanoTime();
 		try {
 			return getCache().remove(key);
 		} catch (Throwable t) {
 			if (t instanceof ThreadDeath)
 				throw (ThreadDeath) t;
 			return false;
+		} finally {
+			metrics.latency(CacheMetrics.REMOVE, start);
 		}
 	}
 
 	@Override
-	public CacheEntry getCacheEntry(String key) throws CacheException {
+	protected int removeAll(List<String> keys) throws CacheException {
+		if (keys.isEmpty())
+			return 0;
+		long start = System.nanoTime();
 		try {
-			misses++;
-			Element el = getCache().get(key);
-			if (el == null)
-				throw new CacheException("there is no entry in cache with key [" + key + "]");
-			hits++;
-			misses--;
-			return new EHCacheEntry(this, el);
+			Cache c = getCache();
+			// ehcache notifies bulk removals without the removed values, also for keys that did not exist,
+			// so the listener cannot count them. Keys gone between the scan and now are not counted.
+			int present = 0;
+			for (String key : keys) {
+				if (c.isKeyInCache(key))
+					present++;
+			}
+			RMIBatchReplicator r = replicator;
+			if (r == null || !c.getCacheEventNotificationService().hasCacheReplicators()) {
+				c.removeAll(keys);
+			} else {
+				// removed without notifying the replicators, they would send every key on its own
+				c.removeAll(keys, true);
+				r.replicateRemovals(c, keys);
+			}
+			metrics.removes(present);
+			return present;
 		} catch (IllegalStateException ise) {
 			throw new CacheException(ise.getMessage());
 		} catch (net.sf.ehcache.CacheException ce) {
 			throw new CacheException(ce.getMessage());
+		} finally {
+			metrics.latency(CacheMetrics.REMOVE, start);
 		}
 	}
 
+	@Override
+	public CacheEntry getCacheEntry(String key) throws CacheException {
+		Element el = read(key);
+		if (el == null)
+			throw new CacheException("there is no entry in cache with key [" + key + "]");
+		return EHCacheElement.view(this, el);
+	}
+
 	@Override
 	public CacheEntry getCacheEntry(String key, CacheEntry defaultValue) {
 		try {
-			Element el = getCache().get(key);
-			if (el != null) {
-				hits++;
-				return new EHCacheEntry(this, el);
-			}
+			Element el = read(key);
+			if (el != null)
+				return EHCacheElement.view(this, el);
 		} catch (Throwable t) {
 			if (t instanceof ThreadDeath)
 				throw (ThreadDeath) t;
-			misses++;
 		}
 		return defaultValue;
 	}
 
+	@Override
+	protected Object decode(Element el) {
+		return decode(handle(), el);
+	}
+
+	private Object decode(CacheHandle h, Element el) {
+		return h.decoded == null ? toCFML(el.getObjectValue(), compression) : h.decoded.get(el);
+	}
+
 	@Override
 	public Object getValue(String key) throws CacheException {
+		Element el = read(key);
+		if (el == null)
+			throw new CacheException("there is no entry in cache with key [" + key + "]");
+		return isDistributed || isSerialized ? decode(el) : el.getObjectValue();
+	}
+
+	@Override
+	public Object getValue(String key, Object defaultValue) {
 		try {
-			misses++;
-			Element el = getCache().get(key);
-			if (el == null)
-				throw new CacheException("there is no entry in cache with key [" + key + "]");
-			misses--;
-			hits++;
-			return isDistributed ? TypeUtil.toCFML(el.getObjectValue()) : el.getObjectValue();
+			Element el = read(key);
+			if (el != null)
+				return isDistributed || isSerialized ? decode(el) : el.getObjectValue();
+		} catch (Exception e) {
+			// handled as miss
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * values of all given keys in a single pass over the store
+	 * 
+	 * @param keys keys to look up
+	 * @return key to value of all keys found, in the order of the given keys, keys not in the cache are
+	 *         not part of the result
+	 * @throws CacheException
+	 */
+	public Map<String, Object> getAll(Collection<String> keys) throws CacheException {
+		long start = System.nanoTime();
+		int size = keys.size();
+		try {
+			CacheHandle h = handle();
+			List<String> candidates = new ArrayList<String>(size);
+			for (String key : keys) {
+				// definite misses are not even passed to ehcache
+				if (key != null && (h.missFilter == null || h.missFilter.mightContain(key)))
+					candidates.add(key);
+			}
+			Map<Object, Element> elements = candidates.isEmpty() ? Collections.<Object, Element>emptyMap()
+					: h.cache.getAll(candidates);
+
+			Map<String, Object> result = new LinkedHashMap<String, Object>(candidates.size() * 4 / 3 + 1);
+			boolean convert = isDistributed || isSerialized;
+			int hits = 0;
+			Element el;
+			for (String key : candidates) {
+				el = elements.get(key);
+				if (el != null) {
+					result.put(key, convert ? decode(h, el) : el.getObjectValue());
+					hits++;
+				}
+			}
+			metrics.hits(hits);
+			metrics.misses(size - hits);
+			return result;
 		} catch (IllegalStateException ise) {
+			metrics.misses(size);
 			throw new CacheException(ise.getMessage());
 		} catch (net.sf.ehcache.CacheException ce) {
+			metrics.misses(size);
 			throw new CacheException(ce.getMessage());
+		} finally {
+			metrics.latency(CacheMetrics.GET_ALL, start);
 		}
 	}
 
-	@Override
-	public Object getValue(String key, Object defaultValue) {
+	/**
+	 * puts all given entries with a single call, the values are converted in one pass and in distributed
+	 * mode the peers get the whole batch at once instead of one message per entry
+	 * 
+	 * @param values key to value of the entries to put
+	 * @param idleTime idle time in milliseconds, null for the default of the cache
+	 * @param liveTime live time in milliseconds, null for the default of the cache
+	 * @throws CacheException
+	 */
+	public void putAll(Map<String, Object> values, Long idleTime, Long liveTime) throws CacheException {
+		if (values.isEmpty())
+			return;
+		getLogger().debug("ehcache",
+				"Putting " + values.size() + " items into cache (serializing=" + isSerialized + ")...");
+
+		long start = System.nanoTime();
 		try {
-			Element el = getCache().get(key);
-			if (el != null) {
-				hits++;
-				return isDistributed ? TypeUtil.toCFML(el.getObjectValue()) : el.getObjectValue();
+			Integer idle = toSeconds(idleTime);
+			Integer live = toSeconds(liveTime);
+			List<Element> elements = new ArrayList<Element>(values.size());
+			for (Entry<String, Object> e : values.entrySet()) {
+				if (e.getKey() != null)
+					elements.add(createElement(e.getKey(), e.getValue(), idle, live));
 			}
-		} catch (Exception e) {
-			misses++;
+
+			Cache c = getCache();
+			RMIBatchReplicator r = replicator;
+			if (r == null || !c.getCacheEventNotificationService().hasCacheReplicators()) {
+				// a clear can swap the cache in the meantime, a disabled cache drops the puts silently (or
+				// fails once it is disposed), so they are repeated with the new one
+				while (true) {
+					try {
+						putAll(c, elements);
+					} catch (RuntimeException re) {
+						if (!c.isDisabled())
+							throw re;
+					}
+					if (!c.isDisabled())
+						return;
+					c = getCache();
+				}
+			}
+
+			// keys that exist already are replicated as updates
+			List<Element> puts = new ArrayList<Element>(elements.size());
+			List<Element> updates = new ArrayList<Element>();
+			for (Element el : elements) {
+				(c.isKeyInCache(el.getObjectKey()) ? updates : puts).add(el);
+			}
+			// stored without notifying the replicators, they would send every element on its own
+			for (Element el : elements) {
+				c.put(el, true);
+			}
+			r.replicatePuts(c, puts, updates);
+		} catch (IllegalStateException ise) {
+			throw new CacheException(ise.getMessage());
+		} catch (net.sf.ehcache.CacheException ce) {
+			throw new CacheException(ce.getMessage());
+		} finally {
+			metrics.latency(CacheMetrics.PUT_ALL, start);
+		}
+	}
+
+	// Cache.putAll notifies every element as put, so keys that exist already are stored on their own to
+	// be notified (metrics, miss filter) as updates
+	private static void putAll(Cache c, List<Element> elements) {
+		List<Element> puts = new ArrayList<Element>(elements.size());
+		List<Element> updates = new ArrayList<Element>();
+		for (Element el : elements) {
+			(c.isKeyInCache(el.getObjectKey()) ? updates : puts).add(el);
+		}
+		if (!puts.isEmpty())
+			c.putAll(puts);
+		for (Element el : updates) {
+			c.put(el);
+		}
+	}
+
+	/**
+	 * key to store an entry of a namespace with (for example with put or cachePut), the key changes with
+	 * every invalidation of the namespace
+	 * 
+	 * @param namespace name of the namespace, cannot contain a colon
+	 * @param key key of the entry within the namespace
+	 */
+	public String namespaceKey(String namespace, String key) throws CacheException {
+		Namespaces.check(namespace);
+		try {
+			return handle().namespaces.key(namespace, key);
+		} catch (IllegalStateException ise) {
+			throw new CacheException(ise.getMessage());
+		} catch (net.sf.ehcache.CacheException ce) {
+			throw new CacheException(ce.getMessage());
+		}
+	}
+
+	/**
+	 * invalidates all entries of a namespace at once, they are removed in the background later, in a
+	 * distributed cache only the new generation of the namespace is sent to the peers
+	 */
+	public void invalidateNamespace(String namespace) throws CacheException {
+		Namespaces.check(namespace);
+		try {
+			handle().namespaces.invalidate(namespace);
+		} catch (IllegalStateException ise) {
+			throw new CacheException(ise.getMessage());
+		} catch (net.sf.ehcache.CacheException ce) {
+			throw new CacheException(ce.getMessage());
+		}
+	}
+
+	/**
+	 * shared read path of getValue/getCacheEntry, a miss is reported as null and not as exception, so
+	 * only the public variants that have to throw pay for one
+	 */
+	private Element read(String key) throws CacheException {
+		long start = System.nanoTime();
+		try {
+			CacheHandle h = handle();
+			// definite misses are answered without touching the (disk) store
+			if (h.missFilter != null && !h.missFilter.mightContain(key)) {
+				metrics.miss();
+				return null;
+			}
+			Element el = h.cache.get(key);
+			if (el == null)
+				metrics.miss();
+			else
+				metrics.hit();
+			return el;
+		} catch (IllegalStateException ise) {
+			metrics.miss();
+			throw new CacheException(ise.getMessage());
+		} catch (net.sf.ehcache.CacheException ce) {
+			metrics.miss();
+			throw new CacheException(ce.getMessage());
+		} catch (RuntimeException re) {
+			metrics.miss();
+			throw re;
+		} finally {
+			metrics.latency(CacheMetrics.GET, start);
 		}
-		return defaultValue;
 	}
 
 	@Override
 	public long hitCount() {
-		return hits;
+		return metrics.hitCount();
 	}
 
 	@Override
 	public long missCount() {
-		return misses;
+		return metrics.missCount();
 	}
 
 	public void remove() {
@@ -686,9 +1023,37 @@ public class EHCache extends EHCacheSupport {
 
 	@Override
 	public int clear() throws IOException {
-		int size = getCache().getSize();
-		getCache().removeAll();
-		return size;
+		long start = System.nanoTime();
+		try {
+			Cache c = getCache();
+			int size = c.getSize();
+			// peers and the disk files know the cache by its name (a persistent one after a restart, a swap
+			// file left by a crash is never removed under another name), so only heap only caches are swapped
+			if (StoreAccess.hasDiskTier(c) || c.getCacheEventNotificationService().hasCacheReplicators())
+				c.removeAll();
+			else
+				swap(c);
+			return size;
+		} catch (IllegalStateException ise) {
+			throw new CacheException(ise.getMessage());
+		} catch (net.sf.ehcache.CacheException ce) {
+			throw new CacheException(ce.getMessage());
+		} finally {
+			metrics.latency(CacheMetrics.CLEAR, start);
+		}
+	}
+
+	/**
+	 * replaces the cache with an empty one with the same configuration, the old cache (memory and disk
+	 * files) is disposed in the background, so the clear does not depend on the size of the cache
+	 */
+	private synchronized void swap(Cache old) {
+		if (!mah.swap(cacheName, old))
+			return;
+		// everyone still holding the old cache resolves the new one with the next operation
+		old.setDisabled(true);
+		resolveCache();
+		Background.execute(() -> mah.removeCache(old.getName()));
 	}
 
 	private static boolean toBooleanValue(Object o, boolean defaultValue) {
@@ -745,6 +1110,9 @@ class CacheManagerAndHash {
 	private CacheManager _manager;
 	private String xml;
 	final String name;
+	// cache name -> name of the ehcache cache currently used for it, only set after a swap
+	private final Map<String, String> current = new ConcurrentHashMap<String, String>();
+	private long swaps;
 
 	/*
 	 * public CacheManagerAndHash(Configuration conf, String hash, int x) {
@@ -757,6 +1125,49 @@ class CacheManagerAndHash {
 		this.name = "ehcache_" + hash;
 	}
 
+	/**
+	 * @return name of the ehcache cache that currently holds the entries of the cache, it only differs
+	 *         from the name itself after a clear swapped in a new cache
+	 */
+	String currentName(String cacheName) {
+		String name = current.get(cacheName);
+		return name == null ? cacheName : name;
+	}
+
+	/**
+	 * @return number of caches of the manager for the name besides the current one, caches swapped out
+	 *         by a clear are disposed in the background
+	 */
+	int swapped(String cacheName) {
+		CacheManager man = getInstance(false);
+		if (man == null)
+			return 0;
+		String current = currentName(cacheName);
+		int count = 0;
+		for (String name : man.getCacheNames()) {
+			if ((name.equals(cacheName) || name.startsWith(cacheName + "~")) && !name.equals(current))
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * adds an empty cache with the configuration of the given one and makes it the current one for the
+	 * name
+	 * 
+	 * @return false if the given cache is not the current one anymore (already swapped by someone else)
+	 */
+	synchronized boolean swap(String cacheName, Cache old) {
+		if (!old.getName().equals(currentName(cacheName)))
+			return false;
+		CacheManager man = getInstance(true);
+		CacheConfiguration conf = old.getCacheConfiguration().clone();
+		conf.setName(cacheName + "~" + (++swaps));
+		man.addCache(new Cache(conf));
+		current.put(cacheName, conf.getName());
+		return true;
+	}
+
 	public int removeCache(String cacheName) {
 		CacheManager man = getInstance(false);
 		if (man == null)
@@ -765,6 +1176,7 @@ class CacheManagerAndHash {
 		String[] names = man.getCacheNames();
 		for (String name : names) {
 			if (name.equals(cacheName)) {
+				current.values().remove(cacheName);
 				man.removeCache(cacheName);
 				return names.length - 1;
 			}
@@ -807,6 +1219,7 @@ class CacheManagerAndHash {
 			// print.ds("hhhhhhhhhhhhhhh shutdown hhhhhhhhhhhhhhhhh");
 			CacheManager m = _manager;
 			_manager = null;
+			current.clear();
 			m.shutdown();
 		}
 	}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh;
+
+import net.sf.ehcache.Element;
+
+/**
+ * Element put by this extension, it keeps the entry view handed out by getCacheEntry, so reading
+ * the same element again does not allocate a new view. The view is transient state, the element is
+ * written (disk store, replication) as a plain {@link Element}. The view only references its cache
+ * weakly, so elements in the store do not keep a released cache alive.
+ */
+final class EHCacheElement extends Element {
+
+	private static final long serialVersionUID = -8218766458391021893L;
+
+	private transient EHCacheEntry view;
+
+	EHCacheElement(Object key, Object value) {
+		super(key, value);
+	}
+
+	EHCacheElement(Object key, Object value, Boolean eternal, Integer timeToIdleSeconds, Integer timeToLiveSeconds) {
+		super(key, value, eternal, timeToIdleSeconds, timeToLiveSeconds);
+	}
+
+	/**
+	 * returns the entry view for the given element, shared by all readers of an element put by this
+	 * extension
+	 */
+	static EHCacheEntry view(EHCacheSupport cache, Element element) {
+		if (!(element instanceof EHCacheElement))
+			return new EHCacheEntry(cache, element);
+		EHCacheElement el = (EHCacheElement) element;
+		// racy but harmless, concurrent readers may only create one too many, a view that got another
+		// element (setElement) is not the view of this element anymore
+		EHCacheEntry view = el.view;
+		if (view == null || view.owner() != cache || view.element() != el)
+			el.view = view = new EHCacheEntry(cache, el);
+		return view;
+	}
+
+	private Object writeReplace() {
+		return new Element(getObjectKey(), getObjectValue(), getVersion(), getCreationTime(), getLastAccessTime(),
+				getHitCount(), usesCacheDefaultLifespan(), getTimeToLive(), getTimeToIdle(), getLastUpdateTime());
+	}
+}
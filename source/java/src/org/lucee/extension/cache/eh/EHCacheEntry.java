@@ -18,6 +18,7 @@
  **/
 package org.lucee.extension.cache.eh;
 
+import java.lang.ref.WeakReference;
 import java.util.Date;
 
 import lucee.commons.io.cache.CacheEntry;
@@ -25,16 +26,26 @@ import lucee.runtime.type.Struct;
 import net.sf.ehcache.Element;
 
 import org.lucee.extension.cache.eh.util.CacheUtil;
-import org.lucee.extension.cache.eh.util.TypeUtil;
 
 public class EHCacheEntry implements CacheEntry {
 
-	private EHCacheSupport cache;
-	private Element element;
+	// weak, the view is kept by the element in the store and must not keep the cache alive
+	private final WeakReference<EHCacheSupport> cache;
+	private final boolean serialized;
+	private volatile Element element;
 
 	public EHCacheEntry(EHCacheSupport cache,Element element) {
+		this.cache=new WeakReference<EHCacheSupport>(cache);
 		this.element=element;
-		this.cache=cache;
+		this.serialized=cache.isSerialized;
+	}
+
+	EHCacheSupport owner() {
+		return cache.get();
+	}
+
+	Element element() {
+		return element;
 	}
 
 	@Override
@@ -49,9 +60,22 @@ public class EHCacheEntry implements CacheEntry {
 
 	@Override
 	public Date lastModified() {
+		return new Date(lastModifiedMillis());
+	}
+
+	/**
+	 * same as lastHit() without materializing a Date
+	 */
+	public long lastHitMillis() {
+		return element.getLastAccessTime();
+	}
+
+	/**
+	 * same as lastModified() without materializing a Date
+	 */
+	public long lastModifiedMillis() {
 		long value = element.getLastUpdateTime();
-		if(value==0)return created();
-		return new Date(value); 
+		return value==0?element.getCreationTime():value;
 	}
 
 	@Override
@@ -81,13 +105,20 @@ public class EHCacheEntry implements CacheEntry {
 
 	@Override
 	public Object getValue() {
-		return cache.isSerialized?TypeUtil.toCFML(element.getObjectValue()):element.getObjectValue();
+		if(!serialized) return element.getObjectValue();
+		EHCacheSupport c=cache.get();
+		// a released cache decodes without its memo and compression stats
+		return c!=null?c.decode(element):EHCacheSupport.toCFML(element.getObjectValue(), null);
 	}
 
+	/**
+	 * @deprecated the entries returned by getCacheEntry are shared by all readers of an element, create
+	 *             a new EHCacheEntry for another element instead
+	 */
+	@Deprecated
 	public void setElement(Element element) {
 		this.element=element;
 	}
-	
 
 	@Override
 	public String toString() {
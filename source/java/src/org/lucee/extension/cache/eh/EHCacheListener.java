@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh;
+
+import java.lang.ref.WeakReference;
+
+import org.lucee.extension.cache.eh.filter.MissFilter;
+import org.lucee.extension.cache.eh.filter.PrefixIndex;
+import org.lucee.extension.cache.eh.stats.CacheMetrics;
+import org.lucee.extension.cache.eh.util.DecodedValues;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
+
+/**
+ * registered with every cache resolved by an {@link EHCache} instance, it feeds the metrics, the
+ * miss filter, the prefix index, the namespaces, the proactive expiry and the decoded values and drops the cached handle as soon as ehcache disposes the cache (removeCache or
+ * CacheManager shutdown)
+ */
+final class EHCacheListener extends CacheEventListenerAdapter {
+
+	// weak, so that the listener does not keep a released EHCache alive
+	private final WeakReference<EHCache> owner;
+	private final Cache cache;
+	private final CacheMetrics metrics;
+	private final MissFilter missFilter;
+	private final PrefixIndex prefixIndex;
+	private final Namespaces namespaces;
+	private final ProactiveExpiry expiry;
+	private final DecodedValues decoded;
+
+	EHCacheListener(EHCache owner, Cache cache, CacheMetrics metrics, MissFilter missFilter, PrefixIndex prefixIndex,
+			Namespaces namespaces, ProactiveExpiry expiry, DecodedValues decoded) {
+		this.owner = new WeakReference<EHCache>(owner);
+		this.cache = cache;
+		this.metrics = metrics;
+		this.missFilter = missFilter;
+		this.prefixIndex = prefixIndex;
+		this.namespaces = namespaces;
+		this.expiry = expiry;
+		this.decoded = decoded;
+	}
+
+	@Override
+	public void notifyElementPut(Ehcache cache, Element element) {
+		metrics.put();
+		if (missFilter != null)
+			missFilter.added(element.getObjectKey());
+		if (prefixIndex != null)
+			prefixIndex.added(element.getObjectKey());
+		namespaces.put(element);
+		if (expiry != null)
+			expiry.added(element);
+		if (decoded != null)
+			decoded.removed(element.getObjectKey());
+	}
+
+	@Override
+	public void notifyElementUpdated(Ehcache cache, Element element) {
+		metrics.update();
+		namespaces.put(element);
+		if (expiry != null)
+			expiry.added(element);
+		if (decoded != null)
+			decoded.removed(element.getObjectKey());
+	}
+
+	@Override
+	public void notifyElementRemoved(Ehcache cache, Element element) {
+		// ehcache also notifies removals of keys that did not exist, with an element without value
+		if (element != null && element.getObjectValue() != null) {
+			metrics.remove();
+			if (missFilter != null)
+				missFilter.removed(element.getObjectKey());
+		}
+		// bulk removals notify without value as well
+		if (element != null) {
+			if (prefixIndex != null)
+				prefixIndex.removed(element.getObjectKey());
+			namespaces.removed(element.getObjectKey());
+			if (expiry != null)
+				expiry.removed(element.getObjectKey());
+			if (decoded != null)
+				decoded.removed(element.getObjectKey());
+		}
+	}
+
+	@Override
+	public void notifyElementEvicted(Ehcache cache, Element element) {
+		metrics.eviction();
+		if (missFilter != null)
+			missFilter.removed(element.getObjectKey());
+		if (prefixIndex != null)
+			prefixIndex.removed(element.getObjectKey());
+		namespaces.evicted(element);
+		if (expiry != null)
+			expiry.removed(element.getObjectKey());
+		if (decoded != null)
+			decoded.removed(element.getObjectKey());
+	}
+
+	@Override
+	public void notifyElementExpired(Ehcache cache, Element element) {
+		metrics.expiration();
+		if (missFilter != null)
+			missFilter.removed(element.getObjectKey());
+		if (prefixIndex != null)
+			prefixIndex.removed(element.getObjectKey());
+		if (expiry != null)
+			expiry.removed(element.getObjectKey());
+		if (decoded != null)
+			decoded.removed(element.getObjectKey());
+	}
+
+	@Override
+	public void notifyRemoveAll(Ehcache cache) {
+		if (missFilter != null)
+			missFilter.cleared();
+		if (prefixIndex != null)
+			prefixIndex.cleared();
+		namespaces.cleared();
+		if (expiry != null)
+			expiry.cleared();
+		if (decoded != null)
+			decoded.cleared();
+	}
+
+	@Override
+	public void dispose() {
+		EHCache o = owner.get();
+		if (o != null)
+			o.invalidate(cache);
+	}
+
+	@Override
+	public Object clone() throws CloneNotSupportedException {
+		throw new CloneNotSupportedException();
+	}
+}
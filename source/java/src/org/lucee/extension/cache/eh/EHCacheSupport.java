@@ -18,10 +18,18 @@
  **/
 package org.lucee.extension.cache.eh;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
 
 import lucee.commons.io.cache.Cache;
 import lucee.commons.io.cache.CacheEntry;
+import lucee.commons.io.cache.CacheEntryFilter;
+import lucee.commons.io.cache.CacheKeyFilter;
 import lucee.commons.io.cache.CachePro;
 import lucee.runtime.type.Struct;
 import lucee.runtime.config.Config;
@@ -29,6 +37,12 @@ import net.sf.ehcache.Element;
 import net.sf.ehcache.config.CacheConfiguration;
 
 import org.lucee.extension.cache.CacheSupport;
+import org.lucee.extension.cache.eh.codec.Compression;
+import org.lucee.extension.cache.eh.codec.Serializers;
+import org.lucee.extension.cache.eh.codec.ValueSerializer;
+import org.lucee.extension.cache.eh.stats.CacheMetrics;
+import org.lucee.extension.cache.eh.util.ParallelScan;
+import org.lucee.extension.cache.eh.util.StoreAccess;
 import org.lucee.extension.cache.eh.util.TypeUtil;
 import lucee.loader.engine.CFMLEngineFactory;
 import lucee.commons.io.log.Log;
@@ -37,7 +51,16 @@ public abstract class EHCacheSupport extends CacheSupport implements Cache {
 	
 	protected boolean isDistributed;
 	protected boolean isSerialized;
+	// values are stored serialized on a local cache as well, to keep the heap small
+	protected boolean storeSerialized;
+	// decoded values kept for the hot keys if storeSerialized, 0 for none
+	protected int decodedCacheSize;
+	// format of the values if isSerialized
+	protected ValueSerializer serializer=Serializers.BINARY;
+	// only if isSerialized and a compression threshold is set, null otherwise
+	protected Compression compression;
 	protected Log logger;
+	protected final CacheMetrics metrics = new CacheMetrics();
 
 	protected Log getLogger() {
 		return getLogger(null);
@@ -56,10 +79,18 @@ public abstract class EHCacheSupport extends CacheSupport implements Cache {
 
 	@Override
 	public boolean contains(String key) {
+		if(!mightContain(key))return false;
 		if(!getCache().isKeyInCache(key))return false;
 		return getCache().get(key)!=null;
 	}
 
+	/**
+	 * @return false if the key is definitely not in the cache, true if it may be
+	 */
+	protected boolean mightContain(String key) {
+		return true;
+	}
+
 	@Override
 	public Struct getCustomInfo() {
 		
@@ -73,28 +104,201 @@ public abstract class EHCacheSupport extends CacheSupport implements Cache {
 		info.setEL("time_to_idle", Double.valueOf(conf.getTimeToIdleSeconds()));
 		info.setEL("time_to_live", Double.valueOf(conf.getTimeToLiveSeconds()));
 		info.setEL("name", conf.getName());
+		if(isSerialized)info.setEL("serializer", serializer.getName());
+		if(isSerialized || isDistributed)info.setEL("decoded_cache_size", Double.valueOf(decodedCacheSize));
+		if(compression!=null)compression.info(info);
+		// counts kept by the stores, no need to list the keys (the per store counts include the elements the cache keeps for itself)
+		net.sf.ehcache.Cache c = getCache();
+		info.setEL("size", Double.valueOf(size(false)));
+		info.setEL("memory_store_size", Double.valueOf(c.getStatistics().getLocalHeapSize()));
+		info.setEL("disk_store_size", Double.valueOf(c.getStatistics().getLocalDiskSize()));
 		return info;
 	}
 
+	/**
+	 * number of entries in the cache
+	 * @param exact if false the count kept by the stores is returned (without the elements the cache keeps for itself), this is cheap
+	 * but contains expired entries until ehcache reclaims them; if true only entries that are not expired are counted, this needs
+	 * a pass over all keys like keys().size()
+	 */
+	public int size(boolean exact) {
+		if(exact) return keys().size();
+		return Math.max(0, getCache().getSize()-internalCount());
+	}
+
 	@Override
 	public List<String> keys() {
-		return getCache().getKeysWithExpiryCheck();
+		long start = System.nanoTime();
+		try {
+			List<String> keys=getCache().getKeysWithExpiryCheck();
+			Predicate<Object> internal=internalKeys();
+			// copied only if there is something to leave out
+			if(internal==null || !keys.stream().anyMatch(internal)) return keys;
+			keys=new ArrayList<String>(keys);
+			keys.removeIf(internal);
+			return keys;
+		} finally {
+			metrics.latency(CacheMetrics.KEYS, start);
+		}
 	}
 	
 	@Override
-	public void put(String key, Object value, Long idleTime, Long liveTime) {
-		boolean hasTime = idleTime!=null || liveTime!=null;
-		Integer idle = idleTime==null?null : Integer.valueOf( (int)(idleTime.longValue()/1000) );
-		Integer live = liveTime==null?null : Integer.valueOf( (int)(liveTime.longValue()/1000) );
+	@SuppressWarnings("unchecked")
+	protected List<String> rawKeys() {
+		// a plain copy of the key references, expiration is checked by the scan for the keys it needs only
+		return (List<String>)getCache().getKeys();
+	}
+
+	@Override
+	protected boolean alive(String key) {
+		Predicate<Object> internal=internalKeys();
+		if(internal!=null && internal.test(key)) return false;
+		// ehcache answers null for expired elements
+		return getCache().getQuiet(key)!=null;
+	}
+
+	/**
+	 * @return a test for the keys of elements the cache keeps for itself, they are not listed, null if there are none
+	 */
+	protected Predicate<Object> internalKeys() {
+		return null;
+	}
+
+	/**
+	 * @return number of elements the cache keeps for itself
+	 */
+	protected int internalCount() {
+		return 0;
+	}
 
+	/**
+	 * converts the stored value of the element back to CFML, caches that store serialized values memoize this
+	 */
+	protected Object decode(Element element) {
+		return toCFML(element.getObjectValue(), compression);
+	}
+
+	/**
+	 * TypeUtil.toCFML, compressed values are inflated with the given compression so it counts them
+	 */
+	static Object toCFML(Object value, Compression compression) {
+		if(compression!=null) {
+			try {
+				value=compression.inflate(value);
+			}
+			catch(IOException e) {
+				// TypeUtil.toCFML tries again and logs the error
+			}
+		}
+		return TypeUtil.toCFML(value);
+	}
+
+	@Override
+	public Iterator<CacheEntry> entryIterator(CacheKeyFilter keyFilter, CacheEntryFilter entryFilter) throws IOException {
+		// a full dump of a heap only cache walks the elements of the store once, no key list and no lookup per key
+		if(keyFilter==null) {
+			net.sf.ehcache.Cache c=getCache();
+			Collection<Element> elements=StoreAccess.elements(c);
+			if(elements!=null) return new ElementIterator(this,c.getCacheConfiguration(),elements.iterator(),internalKeys(),entryFilter);
+		}
+		return super.entryIterator(keyFilter,entryFilter);
+	}
+
+	@Override
+	protected List<CacheEntry> scan(CacheEntryFilter filter) throws IOException {
+		net.sf.ehcache.Cache c=getCache();
+		// closures and other filters calling user code need the page context of the caller, they stay on the calling thread,
+		// like filters that get decoded values (a component needs the page context as well)
+		if(c.getSize()<ParallelScan.THRESHOLD || (filter!=null && (isSerialized || !ParallelScan.isPoolSafe(filter)))) return super.scan(filter);
+		Collection<Element> elements=StoreAccess.elements(c);
+		Predicate<Object> internal=internalKeys();
+		if(elements!=null) {
+			// a full dump of a heap only cache is a single walk of the store, there is nothing to spread
+			if(filter==null) return super.scan(null);
+			CacheConfiguration conf=c.getCacheConfiguration();
+			return ParallelScan.map(elements, el->accept(this,conf,el,internal,filter));
+		}
+		// the lookups in the disk store are spread over the pool
+		return ParallelScan.map(rawKeys(), key->{
+			CacheEntry entry=scanEntry(key);
+			return entry==null || (filter!=null && !filter.accept(entry))?null:entry;
+		});
+	}
+
+	/**
+	 * @return the entry of an element of the store if it is alive and accepted by the filter, null otherwise
+	 */
+	private static CacheEntry accept(EHCacheSupport cache, CacheConfiguration conf, Element el, Predicate<Object> internal, CacheEntryFilter filter) {
+		// expired elements are left to ehcache, like getQuiet would see them
+		if(el==null || el.getObjectValue()==null || el.isExpired(conf)) return null;
+		if(internal!=null && internal.test(el.getObjectKey())) return null;
+		CacheEntry entry=EHCacheElement.view(cache,el);
+		return filter==null || filter.accept(entry)?entry:null;
+	}
+
+	@Override
+	protected CacheEntry scanEntry(String key) {
+		Predicate<Object> internal=internalKeys();
+		if(internal!=null && internal.test(key)) return null;
+		Element el=getCache().getQuiet(key);
+		return el==null?null:EHCacheElement.view(this,el);
+	}
+	
+	@Override
+	public void put(String key, Object value, Long idleTime, Long liveTime) {
 		getLogger().debug("ehcache", "Putting " + key + " item into cache (serializing=" + isSerialized + ")...");
 		
-		if(hasTime)getCache().put(new Element(key, isSerialized?TypeUtil.toJVM(value):value ,false, idle, live));
-		else getCache().put(new Element(key, isSerialized?TypeUtil.toJVM(value):value));
+		long start = System.nanoTime();
+		try {
+			Element el=createElement(key, value, toSeconds(idleTime), toSeconds(liveTime));
+			// a clear can swap the cache in the meantime, a disabled cache drops the put silently (or fails once it is disposed),
+			// so it is repeated with the new one
+			net.sf.ehcache.Cache c;
+			do {
+				c=getCache();
+				try {
+					c.put(el);
+				}
+				catch(RuntimeException re) {
+					if(!c.isDisabled()) throw re;
+				}
+			} while(c.isDisabled());
+		}
+		finally {
+			metrics.latency(CacheMetrics.PUT, start);
+		}
+	}
+
+	/**
+	 * element as stored by put, the value is converted to plain java types if the cache is serialized
+	 */
+	protected Element createElement(String key, Object value, Integer idle, Integer live) {
+		if(isSerialized) {
+			value=TypeUtil.toJVM(value, serializer);
+			if(compression!=null)value=compression.compress(value);
+		}
+		if(idle!=null || live!=null)return new EHCacheElement(key, value, false, idle, live);
+		return new EHCacheElement(key, value);
+	}
+
+	protected static Integer toSeconds(Long millis) {
+		return millis==null?null : Integer.valueOf( (int)(millis.longValue()/1000) );
 	}
 
 
 
+	/**
+	 * @return the operation counters of this cache
+	 */
+	public CacheMetrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	protected void scanned(long start) {
+		metrics.latency(CacheMetrics.SCAN, start);
+	}
+
 	@Override
 	public CachePro decouple() {
 		// is already decoupled by default
@@ -105,7 +309,7 @@ public abstract class EHCacheSupport extends CacheSupport implements Cache {
 	@Override
 	public CacheEntry getQuiet(String key, CacheEntry defaultValue){
 		try {
-			return new EHCacheEntry(this,getCache().getQuiet(key));
+			return EHCacheElement.view(this,getCache().getQuiet(key));
 		} catch(Throwable t) {
 			if(t instanceof ThreadDeath) throw (ThreadDeath)t;
 			return defaultValue;
@@ -114,10 +318,44 @@ public abstract class EHCacheSupport extends CacheSupport implements Cache {
 	
 	@Override
 	public CacheEntry getQuiet(String key) {
-		return new EHCacheEntry(this,getCache().getQuiet(key));
+		return EHCacheElement.view(this,getCache().getQuiet(key));
 	}
 
 	protected abstract net.sf.ehcache.Cache getCache();
 	
 	
-}
\ No newline at end of file
+
+	private static final class ElementIterator implements Iterator<CacheEntry> {
+
+		private final EHCacheSupport cache;
+		private final CacheConfiguration conf;
+		private final Iterator<Element> elements;
+		private final Predicate<Object> internal;
+		private final CacheEntryFilter filter;
+		private CacheEntry next;
+
+		ElementIterator(EHCacheSupport cache, CacheConfiguration conf, Iterator<Element> elements, Predicate<Object> internal, CacheEntryFilter filter) {
+			this.cache=cache;
+			this.conf=conf;
+			this.elements=elements;
+			this.internal=internal;
+			this.filter=filter;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while(next==null && elements.hasNext()){
+				next=accept(cache,conf,elements.next(),internal,filter);
+			}
+			return next!=null;
+		}
+
+		@Override
+		public CacheEntry next() {
+			if(!hasNext()) throw new NoSuchElementException();
+			CacheEntry n=next;
+			next=null;
+			return n;
+		}
+	}
+}
@@ -0,0 +1,344 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.lucee.extension.cache.eh.filter.PrefixIndex;
+import org.lucee.extension.cache.eh.util.Background;
+
+import lucee.commons.io.cache.exp.CacheException;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.Element;
+
+/**
+ * namespaces of a cache, every namespace has a generation that is part of the keys of its entries
+ * ("EHNS:&lt;namespace&gt;:&lt;generation&gt;:&lt;key&gt;"). Invalidating a namespace only replaces
+ * the generation, all entries of the old generation are unreachable at once and get removed later
+ * by a sweep in the background.
+ * <p>
+ * A namespace that was never invalidated has the generation "0" on every node, so all instances
+ * using the cache compute the same keys without talking to each other. Every invalidation counts the
+ * generation up (with a random suffix, two nodes invalidating at the same time still end up with
+ * different generations) and stores it in the cache as an eternal element ("EHNS:&lt;namespace&gt;").
+ * Other instances on the same cache and the peers of a replicated cache adopt it from there, a disk
+ * persistent cache still has it after a restart. The element is put back if it gets evicted, so it is
+ * never lost while the cache lives. A generation is only replaced by a higher one, concurrent
+ * invalidations on several nodes end with the same generation everywhere. These elements are not
+ * listed and not counted.
+ * <p>
+ * A peer that gets a removal of the element instead (updates not replicated via copy) counts up a
+ * generation of its own, so it never reads entries of an old generation either. With replicatePuts
+ * and replicateUpdates disabled the peers do not learn about an invalidation at all, every node only
+ * sees its own invalidations then.
+ * <p>
+ * A sweep only removes the entries of generations this instance replaced itself, never entries that
+ * are current for another instance.
+ */
+final class Namespaces {
+
+	static final String PREFIX = "EHNS:";
+	// generation of a namespace that was never invalidated
+	static final String INITIAL = "0";
+	// stale entries of several invalidations are collected by one sweep
+	private static final long SWEEP_DELAY = 1000;
+
+	private final Cache cache;
+	private final PrefixIndex prefixIndex;
+	private final Map<String, String> generations = new ConcurrentHashMap<String, String>();
+	// namespace -> generations replaced by this instance, not swept yet
+	private final Map<String, Set<String>> retired = new ConcurrentHashMap<String, Set<String>>();
+	// namespaces that have their generation stored as an element
+	private final Set<String> stored = ConcurrentHashMap.newKeySet();
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	Namespaces(Cache cache, PrefixIndex prefixIndex) {
+		this.cache = cache;
+		this.prefixIndex = prefixIndex;
+	}
+
+	static void check(String namespace) throws CacheException {
+		if (namespace == null || namespace.isEmpty() || namespace.indexOf(':') != -1)
+			throw new CacheException(
+					"invalid namespace [" + namespace + "], a namespace cannot be empty or contain a colon");
+	}
+
+	/**
+	 * @return true if the key is the element holding the generation of a namespace
+	 */
+	static boolean isGeneration(Object key) {
+		return key instanceof String && ((String) key).startsWith(PREFIX)
+				&& ((String) key).indexOf(':', PREFIX.length()) == -1;
+	}
+
+	/**
+	 * learns the generations a cache already holds (disk persistent, bootstrapped or used by another
+	 * instance), only needed for the count of them, the generations themselves are read when needed
+	 */
+	void load() {
+		try {
+			for (Object key : cache.getKeys()) {
+				if (isGeneration(key) && cache.isKeyInCache(key))
+					stored.add(((String) key).substring(PREFIX.length()));
+			}
+		} catch (Throwable t) {
+			if (t instanceof ThreadDeath)
+				throw (ThreadDeath) t;
+			// cache got disposed in the meantime
+		}
+	}
+
+	/**
+	 * @return number of elements holding a generation in the cache
+	 */
+	int stored() {
+		return stored.size();
+	}
+
+	/**
+	 * @return the key the entry with the given key is stored with in the current generation of the
+	 *         namespace
+	 */
+	String key(String namespace, String key) {
+		return PREFIX + namespace + ':' + generation(namespace) + ':' + key;
+	}
+
+	/**
+	 * replaces the generation of the namespace and stores the new one in the cache, a replicated cache
+	 * sends it to the peers
+	 */
+	void invalidate(String namespace) {
+		String generation = replace(namespace, null);
+		Element el = new Element(PREFIX + namespace, generation);
+		el.setEternal(true);
+		cache.put(el);
+	}
+
+	/**
+	 * called by the listener for every put or update, adopts the generation another instance or a peer
+	 * stored
+	 */
+	void put(Element element) {
+		Object key = element.getObjectKey();
+		if (!isGeneration(key) || !(element.getObjectValue() instanceof String))
+			return;
+		String namespace = ((String) key).substring(PREFIX.length());
+		stored.add(namespace);
+		String generation = (String) element.getObjectValue();
+		String current = generations.get(namespace);
+		if (current != null && compare(generation, current) < 0) {
+			// a lower generation (a concurrent invalidation of a peer) does not replace the current one, the
+			// cache keeps the current one
+			store(namespace, current);
+			return;
+		}
+		replace(namespace, generation);
+	}
+
+	/**
+	 * called by the listener for every removal, a peer replicating an invalidation as removal makes
+	 * this node count up the generation on its own
+	 */
+	void removed(Object key) {
+		if (!isGeneration(key))
+			return;
+		String namespace = ((String) key).substring(PREFIX.length());
+		stored.remove(namespace);
+		store(namespace, replace(namespace, null));
+	}
+
+	/**
+	 * called by the listener for every eviction, the element of a generation is put back
+	 */
+	void evicted(Element element) {
+		Object key = element.getObjectKey();
+		if (!isGeneration(key) || !(element.getObjectValue() instanceof String))
+			return;
+		String namespace = ((String) key).substring(PREFIX.length());
+		stored.remove(namespace);
+		String generation = generations.get(namespace);
+		store(namespace, generation != null ? generation : (String) element.getObjectValue());
+	}
+
+	/**
+	 * called by the listener when all elements got removed, the entries of all generations are gone,
+	 * so every namespace starts over with the initial generation
+	 */
+	void cleared() {
+		generations.clear();
+		retired.clear();
+		stored.clear();
+	}
+
+	private String generation(String namespace) {
+		String generation = generations.get(namespace);
+		if (generation != null)
+			return generation;
+		generation = generations.putIfAbsent(namespace, read(namespace));
+		return generation != null ? generation : generations.get(namespace);
+	}
+
+	/**
+	 * the generation stored in the cache, the initial one if there is none
+	 */
+	private String read(String namespace) {
+		Element el = cache.getQuiet(PREFIX + namespace);
+		return el != null && el.getObjectValue() instanceof String ? (String) el.getObjectValue() : INITIAL;
+	}
+
+	/**
+	 * makes the given generation the current one of the namespace, a new one if null, and retires the
+	 * one it replaces
+	 * 
+	 * @return the current generation
+	 */
+	private String replace(String namespace, String generation) {
+		String[] previous = new String[1];
+		String current = generations.compute(namespace, (k, old) -> {
+			// a namespace this instance did not use yet is on the stored generation, unless another one just
+			// got stored, then it was on the initial one as far as this instance knows
+			previous[0] = old != null ? old : generation == null ? read(namespace) : INITIAL;
+			if (generation == null)
+				return next(previous[0]);
+			return compare(generation, previous[0]) > 0 ? generation : previous[0];
+		});
+		if (!current.equals(previous[0])) {
+			retired.compute(namespace, (k, set) -> {
+				if (set == null)
+					set = new HashSet<String>();
+				set.add(previous[0]);
+				return set;
+			});
+			schedule();
+		}
+		return current;
+	}
+
+	/**
+	 * stores the generation locally only, the peers have their own
+	 */
+	private void store(String namespace, String generation) {
+		Element el = new Element(PREFIX + namespace, generation);
+		el.setEternal(true);
+		// not within the notification of the store
+		Background.execute(() -> {
+			try {
+				// unless the generation got replaced in the meantime
+				String current = generations.get(namespace);
+				if (current == null || current.equals(generation))
+					cache.put(el, true);
+			} catch (Throwable t) {
+				if (t instanceof ThreadDeath)
+					throw (ThreadDeath) t;
+				// cache got disposed in the meantime
+			}
+		});
+	}
+
+	/**
+	 * the generation following the given one, "&lt;counter&gt;.&lt;random&gt;"
+	 */
+	static String next(String generation) {
+		return Long.toString(counter(generation) + 1, 36) + '.'
+				+ Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+	}
+
+	/**
+	 * orders generations by their counter, the random part only decides between generations with the
+	 * same counter
+	 */
+	static int compare(String left, String right) {
+		int c = Long.compare(counter(left), counter(right));
+		return c != 0 ? c : left.compareTo(right);
+	}
+
+	private static long counter(String generation) {
+		int index = generation.indexOf('.');
+		try {
+			return Long.parseLong(index == -1 ? generation : generation.substring(0, index), 36);
+		} catch (NumberFormatException nfe) {
+			// not written by this class
+			return 0;
+		}
+	}
+
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			try {
+				Background.schedule(this::sweep, SWEEP_DELAY, TimeUnit.MILLISECONDS);
+			} catch (RuntimeException re) {
+				scheduled.set(false);
+				throw re;
+			}
+		}
+	}
+
+	private void sweep() {
+		scheduled.set(false);
+		try {
+			Iterator<String> it = retired.keySet().iterator();
+			while (it.hasNext()) {
+				String namespace = it.next();
+				// taken out at once, a generation retired in the meantime goes into a new set
+				Set<String> stale = retired.remove(namespace);
+				if (stale != null)
+					sweep(namespace, stale);
+			}
+		} catch (Throwable t) {
+			if (t instanceof ThreadDeath)
+				throw (ThreadDeath) t;
+			// cache got disposed in the meantime, nothing left to sweep
+		}
+	}
+
+	/**
+	 * removes the entries of the given retired generations of the namespace, only locally, the peers
+	 * sweep on their own
+	 */
+	private void sweep(String namespace, Set<String> stale) {
+		// a generation can be current again after a clear
+		stale.remove(generations.get(namespace));
+		if (stale.isEmpty())
+			return;
+		String prefix = PREFIX + namespace + ':';
+		List<?> keys = prefixIndex == null ? null : prefixIndex.keys(prefix);
+		if (keys == null)
+			keys = cache.getKeys();
+		List<Object> remove = new ArrayList<Object>();
+		for (Object key : keys) {
+			if (key instanceof String && ((String) key).startsWith(prefix) && isStale((String) key, prefix, stale))
+				remove.add(key);
+		}
+		if (!remove.isEmpty())
+			cache.removeAll(remove, true);
+	}
+
+	private static boolean isStale(String key, String prefix, Set<String> stale) {
+		int end = key.indexOf(':', prefix.length());
+		return end != -1 && stale.contains(key.substring(prefix.length(), end));
+	}
+}
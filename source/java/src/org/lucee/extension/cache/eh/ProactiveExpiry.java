@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.lucee.extension.cache.eh.util.Background;
+import org.lucee.extension.cache.eh.util.TimerWheel;
+import org.lucee.extension.cache.eh.util.TimerWheel.Timer;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.Status;
+
+/**
+ * removes expired elements of a heap only cache in the background, instead of leaving them in memory
+ * until they are read or a scan walks over them.
+ * <p>
+ * Every element that is put gets a timer in a {@link TimerWheel} for the time it expires, fed by the
+ * cache listener. A timer firing is only a hint, the element is read quietly, which lets ehcache
+ * remove it if it is expired. An element that is still alive (time to idle extended by a read, put
+ * again) gets a new timer for its current expiration time. Every run only handles a limited number of
+ * timers, the rest waits for the next run, so the work is spread out instead of done in one go.
+ */
+final class ProactiveExpiry {
+
+	private static final long TICK = 1000;
+	// several runs per tick, so a large number of due timers is worked off in small steps
+	private static final long INTERVAL = 100;
+	// most timers handled per run
+	private static final int BATCH = 1000;
+
+	private final Cache cache;
+	private final TimerWheel<Object> wheel;
+	// current timer of every key, timers that are not in here anymore are ignored when they fire
+	private final ConcurrentHashMap<Object, Timer<Object>> timers = new ConcurrentHashMap<Object, Timer<Object>>();
+	// due timers not handled yet, only used by the run
+	private final ArrayDeque<Timer<Object>> due = new ArrayDeque<Timer<Object>>();
+	private volatile ScheduledFuture<?> future;
+
+	ProactiveExpiry(Cache cache) {
+		this.cache = cache;
+		this.wheel = new TimerWheel<Object>(TICK, System.currentTimeMillis());
+	}
+
+	void start() {
+		future = Background.scheduleWithFixedDelay(this::run, INTERVAL, INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	void stop() {
+		ScheduledFuture<?> f = future;
+		if (f != null)
+			f.cancel(false);
+	}
+
+	int size() {
+		return timers.size();
+	}
+
+	void added(Element element) {
+		long expires = element.getExpirationTime();
+		if (expires == Long.MAX_VALUE)
+			return;
+		// an earlier timer is kept, it moves on to the new expiration time when it fires
+		timers.compute(element.getObjectKey(),
+				(key, t) -> t != null && t.getDeadline() <= expires ? t : wheel.schedule(key, expires));
+	}
+
+	void removed(Object key) {
+		timers.remove(key);
+	}
+
+	void cleared() {
+		timers.clear();
+	}
+
+	private void run() {
+		try {
+			wheel.advance(System.currentTimeMillis(), due);
+			Timer<Object> t;
+			for (int i = 0; i < BATCH && (t = due.poll()) != null; i++) {
+				Object key = t.getKey();
+				if (timers.get(key) != t)
+					continue;
+				// ehcache removes the element here if it is expired (the listener then drops the timer)
+				Element el = cache.getQuiet(key);
+				long expires = el == null ? Long.MAX_VALUE : el.getExpirationTime();
+				if (expires == Long.MAX_VALUE)
+					timers.remove(key, t);
+				else
+					timers.replace(key, t, wheel.schedule(key, expires));
+			}
+		} catch (Throwable t) {
+			if (t instanceof ThreadDeath)
+				throw (ThreadDeath) t;
+			// the cache got disposed, nothing left to do
+			if (cache.getStatus() != Status.STATUS_ALIVE)
+				stop();
+		}
+	}
+}
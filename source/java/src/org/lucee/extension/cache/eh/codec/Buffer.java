@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh.codec;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * growable byte array the serializers write to, unlike ByteArrayOutputStream it is not synchronized
+ * and {@link CFMLCodec} writes to the array directly
+ */
+public final class Buffer extends OutputStream {
+
+	byte[] buf;
+	int pos;
+
+	public Buffer(int size) {
+		buf = new byte[size];
+	}
+
+	@Override
+	public void write(int b) {
+		ensure(1);
+		buf[pos++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		ensure(len);
+		System.arraycopy(b, off, buf, pos, len);
+		pos += len;
+	}
+
+	public int size() {
+		return pos;
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buf, pos);
+	}
+
+	void ensure(int len) {
+		if (pos + len > buf.length)
+			buf = Arrays.copyOf(buf, Math.max(buf.length << 1, pos + len));
+	}
+}
@@ -0,0 +1,855 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh.codec;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.lucee.extension.cache.eh.util.SerializerUtil;
+
+import lucee.loader.engine.CFMLEngineFactory;
+import lucee.runtime.Component;
+import lucee.runtime.type.Array;
+import lucee.runtime.type.Collection.Key;
+import lucee.runtime.type.Query;
+import lucee.runtime.type.Struct;
+import lucee.runtime.type.dt.DateTime;
+import lucee.runtime.type.dt.TimeSpan;
+import lucee.runtime.util.Creation;
+
+/**
+ * binary form of CFML values, the default {@link ValueSerializer} for caches that store their values
+ * serialized (disk tier and replication).
+ * <p>
+ * Structs, arrays, dates, timespans, numbers, strings and binaries are written with a one byte tag,
+ * varint lengths and a string table, so repeated struct keys and values are only written once.
+ * Structs and arrays that appear more than once in the graph (including cycles) are written once
+ * and referenced afterwards, structs keep their type (ordered, weak ...). Subclasses of the engine
+ * collections (QueryStruct, QueryArray ...) are written as java objects, so they keep their class.
+ * Queries are written column by column: a typed column stores its values without tags (varints,
+ * fixed doubles, a bitmap for booleans, a dictionary for repeating strings) and its null cells as
+ * bitmap. Everything else (components, java objects) is embedded as java serialized object, raw
+ * bytes with a length in front, read straight from the array.
+ */
+public final class CFMLCodec implements ValueSerializer {
+
+	public static final byte ID = 1;
+
+	private static final byte NULL = 0;
+	private static final byte TRUE = 1;
+	private static final byte FALSE = 2;
+	private static final byte INT = 3;
+	private static final byte LONG = 4;
+	private static final byte DOUBLE = 5;
+	// double without fraction, written as varint
+	private static final byte DOUBLE_INT = 6;
+	private static final byte FLOAT = 7;
+	private static final byte BIG_DECIMAL = 8;
+	private static final byte STRING = 9;
+	// index into the string table
+	private static final byte STRING_REF = 10;
+	private static final byte DATE = 11;
+	private static final byte TIMESPAN = 12;
+	private static final byte BINARY = 13;
+	private static final byte STRUCT = 14;
+	private static final byte ARRAY = 15;
+	// index of a struct/array already read
+	private static final byte REF = 16;
+	// Base64 java serialized object, only read (written by older versions)
+	private static final byte SERIALIZED = 17;
+	// struct of another type than regular, the type follows as one byte
+	private static final byte STRUCT_TYPED = 18;
+	// java serialized object, 4 byte length and the raw bytes
+	private static final byte JAVA = 19;
+	private static final byte QUERY = 20;
+
+	// encoding of a query column, all kinds but MIXED only contain non null values of one type
+	private static final byte COL_MIXED = 0;
+	private static final byte COL_DOUBLE = 1;
+	private static final byte COL_DOUBLE_INT = 2;
+	private static final byte COL_INT = 3;
+	private static final byte COL_LONG = 4;
+	private static final byte COL_BOOLEAN = 5;
+	private static final byte COL_STRING = 6;
+	private static final byte COL_STRING_DICT = 7;
+	private static final byte COL_DATE = 8;
+	private static final byte COL_TIMESTAMP = 9;
+	private static final byte COL_BIG_DECIMAL = 10;
+
+	private static Creation creator;
+
+	// the collections of the engine the codec writes, other collections extending them are special
+	private static final String[] PLAIN = new String[] { "lucee.runtime.type.StructImpl", "lucee.runtime.type.ArrayImpl",
+			"lucee.runtime.type.QueryImpl" };
+
+	private static final ClassValue<Boolean> SPECIAL = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(Class<?> clazz) {
+			for (Class<?> c = clazz.getSuperclass(); c != null; c = c.getSuperclass()) {
+				for (String name: PLAIN) {
+					if (name.equals(c.getName()))
+						return Boolean.TRUE;
+				}
+			}
+			return Boolean.FALSE;
+		}
+	};
+
+	// getType() of the struct implementation, not part of the Struct interface, null if there is none
+	private static final ClassValue<MethodHandle> STRUCT_TYPE = new ClassValue<MethodHandle>() {
+		@Override
+		protected MethodHandle computeValue(Class<?> clazz) {
+			try {
+				return MethodHandles.publicLookup().findVirtual(clazz, "getType", MethodType.methodType(int.class));
+			}
+			catch (Exception e) {
+				return null;
+			}
+		}
+	};
+
+	@Override
+	public byte getId() {
+		return ID;
+	}
+
+	@Override
+	public String getName() {
+		return "binary";
+	}
+
+	/**
+	 * @return true for the values this codec is used for at the top level, simple values (strings,
+	 *         numbers ...) are cheaper stored as they are
+	 */
+	public static boolean supports(Object value) {
+		if (value instanceof Component)
+			return false;
+		return value instanceof Struct || value instanceof Array || value instanceof Query || value instanceof DateTime
+				|| value instanceof TimeSpan || value instanceof byte[];
+	}
+
+	/**
+	 * @return true for values that are not of a java type, they need to be serialized to survive
+	 *         the disk store or replication
+	 */
+	public static boolean needsSerialization(Object value) {
+		if (value == null)
+			return false;
+		ClassLoader cl = value.getClass().getClassLoader();
+		return cl != null && cl != ClassLoader.getSystemClassLoader();
+	}
+
+	@Override
+	public void serialize(Object value, Buffer out) throws IOException {
+		new Writer(out).value(value);
+	}
+
+	@Override
+	public Object deserialize(byte[] data, int offset, int length) throws IOException {
+		try {
+			return new Reader(data, offset, offset + length).value();
+		}
+		catch (ArrayIndexOutOfBoundsException | NegativeArraySizeException e) {
+			throw new IOException("truncated or corrupt data", e);
+		}
+	}
+
+	private static Creation creator() {
+		if (creator == null)
+			creator = CFMLEngineFactory.getInstance().getCreationUtil();
+		return creator;
+	}
+
+	private static final class Writer {
+
+		private final Buffer out;
+		private final Map<String, Integer> strings = new HashMap<String, Integer>();
+		private final Map<Object, Integer> collections = new IdentityHashMap<Object, Integer>();
+
+		Writer(Buffer out) {
+			this.out = out;
+		}
+
+		void value(Object value) throws IOException {
+			if (value == null) {
+				raw(NULL);
+			}
+			else if (value instanceof String) {
+				string((String) value);
+			}
+			else if (value instanceof Boolean) {
+				raw(((Boolean) value).booleanValue() ? TRUE : FALSE);
+			}
+			else if (value instanceof Double) {
+				number(((Double) value).doubleValue());
+			}
+			else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+				raw(INT);
+				varint(zigzag(((Number) value).intValue()));
+			}
+			else if (value instanceof Long) {
+				raw(LONG);
+				varint(zigzag(((Long) value).longValue()));
+			}
+			else if (value instanceof Float) {
+				raw(FLOAT);
+				fixed(Float.floatToIntBits(((Float) value).floatValue()), 4);
+			}
+			else if (value instanceof BigDecimal) {
+				raw(BIG_DECIMAL);
+				utf8(value.toString());
+			}
+			else if (value instanceof DateTime) {
+				raw(DATE);
+				varint(zigzag(((DateTime) value).getTime()));
+			}
+			else if (value instanceof TimeSpan) {
+				raw(TIMESPAN);
+				varint(zigzag(((TimeSpan) value).getMillis()));
+			}
+			else if (value instanceof byte[]) {
+				byte[] bytes = (byte[]) value;
+				raw(BINARY);
+				varint(bytes.length);
+				bytes(bytes, bytes.length);
+			}
+			else if (!(value instanceof Component) && (value instanceof Struct || value instanceof Array || value instanceof Query)
+					&& !SPECIAL.get(value.getClass()).booleanValue()) {
+				Integer index = collections.get(value);
+				if (index != null) {
+					raw(REF);
+					varint(index.intValue());
+				}
+				else {
+					collections.put(value, collections.size());
+					if (value instanceof Array)
+						array((Array) value);
+					else if (value instanceof Query)
+						query((Query) value);
+					else
+						struct((Struct) value);
+				}
+			}
+			else {
+				raw(JAVA);
+				int start = out.pos;
+				fixed(0, 4);
+				SerializerUtil.serialize(value, out);
+				int len = out.pos - start - 4;
+				out.pos = start;
+				fixed(len, 4);
+				out.pos += len;
+			}
+		}
+
+		private void array(Array arr) throws IOException {
+			raw(ARRAY);
+			int size = arr.size();
+			varint(size);
+			Iterator<Object> it = arr.valueIterator();
+			int count = 0;
+			while (count < size && it.hasNext()) {
+				value(it.next());
+				count++;
+			}
+			// the iterator may skip empty positions
+			for (; count < size; count++)
+				raw(NULL);
+		}
+
+		private static int type(Struct sct) {
+			MethodHandle mh = STRUCT_TYPE.get(sct.getClass());
+			if (mh == null)
+				return Struct.TYPE_UNDEFINED;
+			try {
+				return (int) mh.invoke(sct);
+			}
+			catch (Throwable t) {
+				if (t instanceof ThreadDeath)
+					throw (ThreadDeath) t;
+				return Struct.TYPE_UNDEFINED;
+			}
+		}
+
+		private void struct(Struct sct) throws IOException {
+			int type = type(sct);
+			if (type == Struct.TYPE_REGULAR || type == Struct.TYPE_UNDEFINED) {
+				raw(STRUCT);
+			}
+			else {
+				raw(STRUCT_TYPED);
+				raw((byte) type);
+			}
+			int size = sct.size();
+			varint(size);
+			Iterator<Entry<Key, Object>> it = sct.entryIterator();
+			int count = 0;
+			Entry<Key, Object> e;
+			while (count < size && it.hasNext()) {
+				e = it.next();
+				string(e.getKey().getString());
+				value(e.getValue());
+				count++;
+			}
+			if (count < size)
+				throw new IOException("struct changed while it was serialized");
+		}
+
+		private void query(Query qry) throws IOException {
+			raw(QUERY);
+			value(qry.getName());
+			int rows = qry.getRecordcount();
+			varint(rows);
+			varint(zigzag(qry.getExecutionTime()));
+			Key[] columns = qry.getColumnNames();
+			Map<Key, String> types = qry.getTypesAsMap();
+			varint(columns.length);
+			for (Key column: columns) {
+				string(column.getString());
+				value(types == null ? null : types.get(column));
+			}
+			Object[] cells = new Object[rows];
+			for (Key column: columns) {
+				for (int row = 1; row <= rows; row++) {
+					cells[row - 1] = qry.getAt(column, row, null);
+				}
+				column(cells);
+			}
+		}
+
+		private void column(Object[] cells) throws IOException {
+			byte kind = kind(cells);
+			raw(kind);
+			if (kind == COL_MIXED) {
+				for (Object cell: cells)
+					value(cell);
+				return;
+			}
+
+			// null cells
+			boolean nulls = false;
+			for (Object cell: cells) {
+				if (cell == null) {
+					nulls = true;
+					break;
+				}
+			}
+			raw(nulls ? TRUE : FALSE);
+			if (nulls)
+				bitmap(cells, null);
+
+			switch (kind) {
+			case COL_DOUBLE:
+				for (Object cell: cells)
+					if (cell != null)
+						fixed(Double.doubleToRawLongBits(((Double) cell).doubleValue()), 8);
+				break;
+			case COL_DOUBLE_INT:
+				for (Object cell: cells)
+					if (cell != null)
+						varint(zigzag((long) ((Double) cell).doubleValue()));
+				break;
+			case COL_INT:
+			case COL_LONG:
+				// not through double, longs beyond 2^53 would lose their low bits
+				for (Object cell: cells)
+					if (cell != null)
+						varint(zigzag(((Number) cell).longValue()));
+				break;
+			case COL_BOOLEAN:
+				bitmap(cells, Boolean.TRUE);
+				break;
+			case COL_STRING:
+			case COL_BIG_DECIMAL:
+				for (Object cell: cells)
+					if (cell != null)
+						utf8(cell.toString());
+				break;
+			case COL_STRING_DICT: {
+				Map<String, Integer> dict = new HashMap<String, Integer>();
+				for (Object cell: cells)
+					if (cell != null && !dict.containsKey(cell))
+						dict.put((String) cell, dict.size());
+				String[] entries = new String[dict.size()];
+				for (Entry<String, Integer> e: dict.entrySet())
+					entries[e.getValue().intValue()] = e.getKey();
+				varint(entries.length);
+				for (String entry: entries)
+					utf8(entry);
+				for (Object cell: cells)
+					if (cell != null)
+						varint(dict.get(cell).intValue());
+				break;
+			}
+			case COL_DATE:
+			case COL_TIMESTAMP: {
+				// sorted or close together dates make small deltas
+				long last = 0;
+				for (Object cell: cells) {
+					if (cell == null)
+						continue;
+					long time = ((java.util.Date) cell).getTime();
+					varint(zigzag(time - last));
+					last = time;
+					if (kind == COL_TIMESTAMP)
+						varint(((Timestamp) cell).getNanos() % 1000000);
+				}
+				break;
+			}
+			}
+		}
+
+		/**
+		 * @return how the column can be written, COL_MIXED if the values are not all of the same type
+		 */
+		private static byte kind(Object[] cells) {
+			Class<?> type = null;
+			int count = 0;
+			for (Object cell: cells) {
+				if (cell == null)
+					continue;
+				Class<?> c = cell instanceof DateTime ? DateTime.class : cell.getClass();
+				if (type == null)
+					type = c;
+				else if (type != c)
+					return COL_MIXED;
+				count++;
+			}
+			if (type == null)
+				return COL_MIXED;
+			if (type == Double.class) {
+				for (Object cell: cells) {
+					if (cell == null)
+						continue;
+					double d = ((Double) cell).doubleValue();
+					long l = (long) d;
+					if (l != d || Math.abs(l) >= (1L << 53) || (l == 0 && Double.doubleToRawLongBits(d) != 0L))
+						return COL_DOUBLE;
+				}
+				return COL_DOUBLE_INT;
+			}
+			if (type == Integer.class)
+				return COL_INT;
+			if (type == Long.class)
+				return COL_LONG;
+			if (type == Boolean.class)
+				return COL_BOOLEAN;
+			if (type == BigDecimal.class)
+				return COL_BIG_DECIMAL;
+			if (type == DateTime.class)
+				return COL_DATE;
+			if (type == Timestamp.class)
+				return COL_TIMESTAMP;
+			if (type == String.class) {
+				// a dictionary pays off if the values repeat
+				Map<Object, Object> distinct = new HashMap<Object, Object>();
+				for (Object cell: cells) {
+					if (cell != null && distinct.put(cell, cell) == null && distinct.size() * 2 > count)
+						return COL_STRING;
+				}
+				return COL_STRING_DICT;
+			}
+			return COL_MIXED;
+		}
+
+		/**
+		 * one bit per cell, set if the cell is the given value (null or Boolean.TRUE)
+		 */
+		private void bitmap(Object[] cells, Object bit) {
+			int len = (cells.length + 7) >>> 3;
+			out.ensure(len);
+			byte[] buf = out.buf;
+			int pos = out.pos;
+			Arrays.fill(buf, pos, pos + len, (byte) 0);
+			for (int i = 0; i < cells.length; i++) {
+				if (bit == null ? cells[i] == null : bit.equals(cells[i]))
+					buf[pos + (i >>> 3)] |= 1 << (i & 7);
+			}
+			out.pos = pos + len;
+		}
+
+		private void number(double d) {
+			long l = (long) d;
+			// whole numbers (the common case in CFML) are written as varint, -0.0 keeps its sign
+			if (l == d && Math.abs(l) < (1L << 53) && (l != 0 || Double.doubleToRawLongBits(d) == 0L)) {
+				raw(DOUBLE_INT);
+				varint(zigzag(l));
+			}
+			else {
+				raw(DOUBLE);
+				fixed(Double.doubleToRawLongBits(d), 8);
+			}
+		}
+
+		private void string(String str) {
+			Integer index = strings.get(str);
+			if (index != null) {
+				raw(STRING_REF);
+				varint(index.intValue());
+				return;
+			}
+			strings.put(str, strings.size());
+			raw(STRING);
+			utf8(str);
+		}
+
+		private void utf8(String str) {
+			byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+			varint(bytes.length);
+			bytes(bytes, bytes.length);
+		}
+
+		private static long zigzag(long l) {
+			return (l << 1) ^ (l >> 63);
+		}
+
+		private void varint(long l) {
+			out.ensure(10);
+			byte[] buf = out.buf;
+			int pos = out.pos;
+			while ((l & ~0x7FL) != 0) {
+				buf[pos++] = (byte) ((l & 0x7F) | 0x80);
+				l >>>= 7;
+			}
+			buf[pos++] = (byte) l;
+			out.pos = pos;
+		}
+
+		private void fixed(long l, int bytes) {
+			out.ensure(bytes);
+			for (int i = 0; i < bytes; i++) {
+				out.buf[out.pos++] = (byte) l;
+				l >>>= 8;
+			}
+		}
+
+		private void raw(byte b) {
+			out.write(b);
+		}
+
+		private void bytes(byte[] bytes, int len) {
+			out.write(bytes, 0, len);
+		}
+	}
+
+	private static final class Reader {
+
+		private final byte[] buf;
+		private int pos;
+		private final int end;
+		private final ArrayList<String> strings = new ArrayList<String>();
+		private final ArrayList<Object> collections = new ArrayList<Object>();
+
+		Reader(byte[] buf, int pos, int end) {
+			this.buf = buf;
+			this.pos = pos;
+			this.end = end;
+		}
+
+		Object value() throws IOException {
+			byte tag = buf[pos++];
+			switch (tag) {
+			case NULL:
+				return null;
+			case TRUE:
+				return Boolean.TRUE;
+			case FALSE:
+				return Boolean.FALSE;
+			case INT:
+				return Integer.valueOf((int) unzigzag(varint()));
+			case LONG:
+				return Long.valueOf(unzigzag(varint()));
+			case DOUBLE:
+				return Double.valueOf(Double.longBitsToDouble(fixed(8)));
+			case DOUBLE_INT:
+				return Double.valueOf(unzigzag(varint()));
+			case FLOAT:
+				return Float.valueOf(Float.intBitsToFloat((int) fixed(4)));
+			case BIG_DECIMAL:
+				return new BigDecimal(utf8());
+			case STRING: {
+				String str = utf8();
+				strings.add(str);
+				return str;
+			}
+			case STRING_REF:
+				return strings.get(index(strings.size()));
+			case DATE:
+				return creator().createDateTime(unzigzag(varint()));
+			case TIMESPAN:
+				return CFMLEngineFactory.getInstance().getCastUtil().toTimespan(unzigzag(varint()));
+			case BINARY: {
+				int len = length();
+				byte[] bytes = Arrays.copyOfRange(buf, pos, pos + len);
+				pos += len;
+				return bytes;
+			}
+			case STRUCT:
+				return struct(creator().createStruct());
+			case STRUCT_TYPED:
+				return struct(creator().createStruct(buf[pos++]));
+			case ARRAY:
+				return array();
+			case QUERY:
+				return query();
+			case REF:
+				return collections.get(index(collections.size()));
+			case JAVA: {
+				long len = fixed(4);
+				if (len < 0 || len > end - pos)
+					throw new IOException("invalid length [" + len + "] at position [" + pos + "]");
+				Object value = SerializerUtil.deserialize(buf, pos, (int) len);
+				pos += (int) len;
+				return value;
+			}
+			case SERIALIZED:
+				try {
+					return SerializerUtil.evaluate(utf8());
+				}
+				catch (IOException e) {
+					throw e;
+				}
+				catch (Exception e) {
+					throw new IOException(e);
+				}
+			default:
+				throw new IOException("unknown type [" + tag + "] at position [" + (pos - 1) + "]");
+			}
+		}
+
+		private Struct struct(Struct sct) throws IOException {
+			collections.add(sct);
+			int size = length();
+			for (int i = 0; i < size; i++) {
+				Object key = value();
+				if (!(key instanceof String))
+					throw new IOException("invalid struct key at position [" + pos + "]");
+				sct.setEL((String) key, value());
+			}
+			return sct;
+		}
+
+		private Query query() throws IOException {
+			Object name = value();
+			int rows = length();
+			long executionTime = unzigzag(varint());
+			int count = length();
+			Key[] columns = new Key[count];
+			String[] types = new String[count];
+			boolean typed = true;
+			for (int i = 0; i < count; i++) {
+				Object column = value();
+				Object type = value();
+				if (!(column instanceof String))
+					throw new IOException("invalid query column at position [" + pos + "]");
+				columns[i] = creator().createKey((String) column);
+				if (type instanceof String)
+					types[i] = (String) type;
+				else
+					typed = false;
+			}
+
+			Query qry;
+			try {
+				String n = name == null ? "query" : name.toString();
+				qry = typed ? creator().createQuery(columns, types, rows, n) : creator().createQuery(columns, rows, n);
+			}
+			catch (Exception e) {
+				throw new IOException("cannot create query", e);
+			}
+			collections.add(qry);
+			qry.setExecutionTime(executionTime);
+
+			Object[] cells = new Object[rows];
+			for (Key column: columns) {
+				column(cells);
+				for (int row = 1; row <= rows; row++) {
+					if (cells[row - 1] != null)
+						qry.setAtEL(column, row, cells[row - 1]);
+				}
+			}
+			return qry;
+		}
+
+		private void column(Object[] cells) throws IOException {
+			byte kind = buf[pos++];
+			int rows = cells.length;
+			if (kind == COL_MIXED) {
+				for (int i = 0; i < rows; i++)
+					cells[i] = value();
+				return;
+			}
+
+			// cells that stay null are marked with null, all others get a value below
+			byte nulls = buf[pos++];
+			if (nulls == TRUE) {
+				nulls(cells);
+			}
+			else {
+				Arrays.fill(cells, Boolean.TRUE);
+			}
+
+			switch (kind) {
+			case COL_DOUBLE:
+				for (int i = 0; i < rows; i++)
+					if (cells[i] != null)
+						cells[i] = Double.valueOf(Double.longBitsToDouble(fixed(8)));
+				break;
+			case COL_DOUBLE_INT:
+				for (int i = 0; i < rows; i++)
+					if (cells[i] != null)
+						cells[i] = Double.valueOf(unzigzag(varint()));
+				break;
+			case COL_INT:
+				for (int i = 0; i < rows; i++)
+					if (cells[i] != null)
+						cells[i] = Integer.valueOf((int) unzigzag(varint()));
+				break;
+			case COL_LONG:
+				for (int i = 0; i < rows; i++)
+					if (cells[i] != null)
+						cells[i] = Long.valueOf(unzigzag(varint()));
+				break;
+			case COL_BOOLEAN: {
+				int start = pos;
+				pos += (rows + 7) >>> 3;
+				for (int i = 0; i < rows; i++)
+					if (cells[i] != null)
+						cells[i] = (buf[start + (i >>> 3)] & (1 << (i & 7))) != 0 ? Boolean.TRUE : Boolean.FALSE;
+				break;
+			}
+			case COL_STRING:
+				for (int i = 0; i < rows; i++)
+					if (cells[i] != null)
+						cells[i] = utf8();
+				break;
+			case COL_BIG_DECIMAL:
+				for (int i = 0; i < rows; i++)
+					if (cells[i] != null)
+						cells[i] = new BigDecimal(utf8());
+				break;
+			case COL_STRING_DICT: {
+				String[] dict = new String[length()];
+				for (int i = 0; i < dict.length; i++)
+					dict[i] = utf8();
+				for (int i = 0; i < rows; i++)
+					if (cells[i] != null)
+						cells[i] = dict[index(dict.length)];
+				break;
+			}
+			case COL_DATE:
+			case COL_TIMESTAMP: {
+				long last = 0;
+				for (int i = 0; i < rows; i++) {
+					if (cells[i] == null)
+						continue;
+					last += unzigzag(varint());
+					if (kind == COL_DATE) {
+						cells[i] = creator().createDateTime(last);
+					}
+					else {
+						Timestamp ts = new Timestamp(last);
+						ts.setNanos((int) (Math.floorMod(last, 1000L) * 1000000 + varint()));
+						cells[i] = ts;
+					}
+				}
+				break;
+			}
+			default:
+				throw new IOException("unknown column type [" + kind + "] at position [" + (pos - 1) + "]");
+			}
+		}
+
+		/**
+		 * cells with the bit set are set to null, the others to a placeholder
+		 */
+		private void nulls(Object[] cells) {
+			int start = pos;
+			pos += (cells.length + 7) >>> 3;
+			for (int i = 0; i < cells.length; i++)
+				cells[i] = (buf[start + (i >>> 3)] & (1 << (i & 7))) != 0 ? null : Boolean.TRUE;
+		}
+
+		private Array array() throws IOException {
+			Array arr = creator().createArray();
+			collections.add(arr);
+			int size = length();
+			for (int i = 0; i < size; i++) {
+				arr.appendEL(value());
+			}
+			return arr;
+		}
+
+		private String utf8() throws IOException {
+			int len = length();
+			String str = new String(buf, pos, len, StandardCharsets.UTF_8);
+			pos += len;
+			return str;
+		}
+
+		private int length() throws IOException {
+			long l = varint();
+			if (l < 0 || l > end - pos)
+				throw new IOException("invalid length [" + l + "] at position [" + pos + "]");
+			return (int) l;
+		}
+
+		private int index(int size) throws IOException {
+			long l = varint();
+			if (l < 0 || l >= size)
+				throw new IOException("invalid reference [" + l + "] at position [" + pos + "]");
+			return (int) l;
+		}
+
+		private static long unzigzag(long l) {
+			return (l >>> 1) ^ -(l & 1);
+		}
+
+		private long varint() throws IOException {
+			long result = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				byte b = buf[pos++];
+				result |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					return result;
+			}
+			throw new IOException("malformed varint at position [" + pos + "]");
+		}
+
+		private long fixed(int bytes) {
+			long l = 0;
+			for (int i = 0; i < bytes; i++) {
+				l |= (buf[pos++] & 0xFFL) << (i << 3);
+			}
+			return l;
+		}
+	}
+}
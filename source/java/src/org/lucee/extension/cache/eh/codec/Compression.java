@@ -0,0 +1,194 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh.codec;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import lucee.runtime.type.Struct;
+
+/**
+ * compresses the serialized values of a cache that are larger than a threshold before they are
+ * stored (and so written to the disk store and to other nodes), with {@link Deflater#BEST_SPEED}.
+ * <p>
+ * A compressed value is an encoded value (see {@link Serializers}) with the id {@link #ID}, followed
+ * by the length of the uncompressed value and the deflated data, so compressed and uncompressed
+ * values can be mixed. Values that do not get smaller are stored uncompressed.
+ */
+public final class Compression {
+
+	public static final byte ID = 15;
+	private static final int HEADER = 7;
+
+	private final int threshold;
+	private final LongAdder compressed = new LongAdder();
+	private final LongAdder uncompressed = new LongAdder();
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final LongAdder compressNanos = new LongAdder();
+	private final LongAdder inflated = new LongAdder();
+	private final LongAdder inflateNanos = new LongAdder();
+
+	/**
+	 * @param threshold values with at least that many bytes (chars for strings) are compressed
+	 */
+	public Compression(int threshold) {
+		this.threshold = threshold;
+	}
+
+	/**
+	 * @param value a value as returned by TypeUtil.toJVM
+	 * @return the compressed value or the value itself if it is too small or does not get smaller
+	 */
+	public Object compress(Object value) {
+		byte[] data;
+		if (value instanceof byte[] && Serializers.isEncoded((byte[]) value)) {
+			data = (byte[]) value;
+			if (data.length < threshold || data[2] == ID)
+				return value;
+		}
+		// large strings (html fragments ...) are not encoded by toJVM
+		else if (value instanceof String && ((String) value).length() >= threshold) {
+			try {
+				data = Serializers.encode(Serializers.BINARY, value);
+			} catch (IOException e) {
+				return value;
+			}
+		}
+		else
+			return value;
+
+		long start = System.nanoTime();
+		byte[] result = deflate(data);
+		compressNanos.add(System.nanoTime() - start);
+		if (result == null) {
+			uncompressed.increment();
+			return value;
+		}
+		compressed.increment();
+		bytesIn.add(data.length);
+		bytesOut.add(result.length);
+		return result;
+	}
+
+	/**
+	 * @return the uncompressed encoded value if the value is compressed, otherwise the value itself
+	 */
+	public Object inflate(Object value) throws IOException {
+		if (!isCompressed(value))
+			return value;
+		long start = System.nanoTime();
+		try {
+			return inflate((byte[]) value);
+		} finally {
+			inflated.increment();
+			inflateNanos.add(System.nanoTime() - start);
+		}
+	}
+
+	public void info(Struct info) {
+		info.setEL("compression_threshold", Double.valueOf(threshold));
+		info.setEL("compression_count", Double.valueOf(compressed.sum()));
+		info.setEL("compression_skipped", Double.valueOf(uncompressed.sum()));
+		long in = bytesIn.sum();
+		info.setEL("compression_ratio", Double.valueOf(in == 0 ? 1D : bytesOut.sum() / (double) in));
+		info.setEL("compression_saved_bytes", Double.valueOf(in - bytesOut.sum()));
+		info.setEL("compression_time", Double.valueOf(compressNanos.sum() / 1000000D));
+		info.setEL("decompression_count", Double.valueOf(inflated.sum()));
+		info.setEL("decompression_time", Double.valueOf(inflateNanos.sum() / 1000000D));
+	}
+
+	public static boolean isCompressed(Object value) {
+		return value instanceof byte[] && Serializers.isEncoded((byte[]) value) && ((byte[]) value)[2] == ID;
+	}
+
+	/**
+	 * @return the compressed value or null if it does not get smaller
+	 */
+	private static byte[] deflate(byte[] data) {
+		// the header alone is that long already
+		if (data.length <= HEADER)
+			return null;
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			// not smaller than the data, otherwise we keep the data
+			byte[] out = new byte[data.length];
+			int len = HEADER;
+			while (!deflater.finished()) {
+				len += deflater.deflate(out, len, out.length - len);
+				if (len >= out.length && !deflater.finished())
+					return null;
+			}
+			if (len >= data.length)
+				return null;
+			out[0] = data[0];
+			out[1] = data[1];
+			out[2] = ID;
+			writeInt(out, 3, data.length);
+			return Arrays.copyOf(out, len);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * @param data a compressed value
+	 * @return the encoded value
+	 */
+	static byte[] inflate(byte[] data) throws IOException {
+		if (data.length < HEADER)
+			throw new IOException("truncated compressed value");
+		int len = readInt(data, 3);
+		if (len < 0)
+			throw new IOException("invalid length [" + len + "] of compressed value");
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data, HEADER, data.length - HEADER);
+			byte[] out = new byte[len];
+			int pos = 0;
+			while (pos < len) {
+				int n = inflater.inflate(out, pos, len - pos);
+				if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+					throw new IOException("truncated compressed value");
+				pos += n;
+			}
+			return out;
+		} catch (DataFormatException e) {
+			throw new IOException("corrupt compressed value", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static void writeInt(byte[] data, int pos, int value) {
+		data[pos] = (byte) (value >>> 24);
+		data[pos + 1] = (byte) (value >>> 16);
+		data[pos + 2] = (byte) (value >>> 8);
+		data[pos + 3] = (byte) value;
+	}
+
+	private static int readInt(byte[] data, int pos) {
+		return ((data[pos] & 0xFF) << 24) | ((data[pos + 1] & 0xFF) << 16) | ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+	}
+}
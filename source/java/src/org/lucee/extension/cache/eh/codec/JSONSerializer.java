@@ -0,0 +1,344 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh.codec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import lucee.loader.engine.CFMLEngineFactory;
+import lucee.runtime.Component;
+import lucee.runtime.type.Array;
+import lucee.runtime.type.Collection.Key;
+import lucee.runtime.type.Struct;
+import lucee.runtime.type.dt.DateTime;
+import lucee.runtime.util.Creation;
+
+/**
+ * values as UTF-8 JSON, readable by anything but lossy: numbers come back as double, dates as ISO 8601
+ * strings. Values JSON cannot represent (components, queries, binaries, java objects, cycles) are not
+ * accepted, they are stored with the binary serializer instead.
+ */
+public final class JSONSerializer implements ValueSerializer {
+
+	public static final byte ID = 3;
+
+	private static Creation creator;
+
+	@Override
+	public byte getId() {
+		return ID;
+	}
+
+	@Override
+	public String getName() {
+		return "json";
+	}
+
+	@Override
+	public void serialize(Object value, Buffer out) throws IOException {
+		StringBuilder sb = new StringBuilder(256);
+		write(sb, value, new IdentityHashMap<Object, Object>());
+		byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	@Override
+	public Object deserialize(byte[] data, int offset, int length) throws IOException {
+		Parser p = new Parser(new String(data, offset, length, StandardCharsets.UTF_8));
+		Object value = p.value();
+		p.skipWhitespace();
+		if (p.pos != p.str.length())
+			throw p.error("unexpected content");
+		return value;
+	}
+
+	private static void write(StringBuilder sb, Object value, Map<Object, Object> parents) throws IOException {
+		if (value == null) {
+			sb.append("null");
+		}
+		else if (value instanceof String) {
+			string(sb, (String) value);
+		}
+		else if (value instanceof Boolean) {
+			sb.append(((Boolean) value).booleanValue());
+		}
+		else if (value instanceof Number && !(value instanceof java.math.BigInteger)) {
+			double d = ((Number) value).doubleValue();
+			if (Double.isNaN(d) || Double.isInfinite(d))
+				throw new IOException("JSON cannot represent the number [" + d + "]");
+			long l = (long) d;
+			if (l == d && Math.abs(l) < (1L << 53))
+				sb.append(l);
+			else
+				sb.append(d);
+		}
+		else if (value instanceof DateTime) {
+			string(sb, Instant.ofEpochMilli(((DateTime) value).getTime()).toString());
+		}
+		else if (!(value instanceof Component) && (value instanceof Struct || value instanceof Array)) {
+			if (parents.put(value, value) != null)
+				throw new IOException("JSON cannot represent a struct or array that contains itself");
+			if (value instanceof Array) {
+				sb.append('[');
+				Iterator<Object> it = ((Array) value).valueIterator();
+				boolean first = true;
+				while (it.hasNext()) {
+					if (!first)
+						sb.append(',');
+					first = false;
+					write(sb, it.next(), parents);
+				}
+				sb.append(']');
+			}
+			else {
+				sb.append('{');
+				Iterator<Entry<Key, Object>> it = ((Struct) value).entryIterator();
+				boolean first = true;
+				Entry<Key, Object> e;
+				while (it.hasNext()) {
+					e = it.next();
+					if (!first)
+						sb.append(',');
+					first = false;
+					string(sb, e.getKey().getString());
+					sb.append(':');
+					write(sb, e.getValue(), parents);
+				}
+				sb.append('}');
+			}
+			parents.remove(value);
+		}
+		else {
+			throw new IOException("JSON cannot represent a value of type [" + value.getClass().getName() + "]");
+		}
+	}
+
+	private static void string(StringBuilder sb, String str) {
+		sb.append('"');
+		char c;
+		for (int i = 0; i < str.length(); i++) {
+			c = str.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					sb.append("\\u00");
+					sb.append(Character.forDigit(c >> 4, 16));
+					sb.append(Character.forDigit(c & 0xF, 16));
+				}
+				else
+					sb.append(c);
+			}
+		}
+		sb.append('"');
+	}
+
+	private static Creation creator() {
+		if (creator == null)
+			creator = CFMLEngineFactory.getInstance().getCreationUtil();
+		return creator;
+	}
+
+	private static final class Parser {
+
+		private final String str;
+		private int pos;
+
+		Parser(String str) {
+			this.str = str;
+		}
+
+		Object value() throws IOException {
+			skipWhitespace();
+			if (pos >= str.length())
+				throw error("unexpected end");
+			char c = str.charAt(pos);
+			switch (c) {
+			case '{':
+				return struct();
+			case '[':
+				return array();
+			case '"':
+				return string();
+			case 't':
+				literal("true");
+				return Boolean.TRUE;
+			case 'f':
+				literal("false");
+				return Boolean.FALSE;
+			case 'n':
+				literal("null");
+				return null;
+			default:
+				return number();
+			}
+		}
+
+		private Struct struct() throws IOException {
+			Struct sct = creator().createStruct();
+			pos++;
+			skipWhitespace();
+			if (next('}'))
+				return sct;
+			do {
+				skipWhitespace();
+				if (pos >= str.length() || str.charAt(pos) != '"')
+					throw error("expected a key");
+				String key = string();
+				skipWhitespace();
+				if (!next(':'))
+					throw error("expected ':'");
+				sct.setEL(key, value());
+				skipWhitespace();
+			}
+			while (next(','));
+			if (!next('}'))
+				throw error("expected '}'");
+			return sct;
+		}
+
+		private Array array() throws IOException {
+			Array arr = creator().createArray();
+			pos++;
+			skipWhitespace();
+			if (next(']'))
+				return arr;
+			do {
+				arr.appendEL(value());
+				skipWhitespace();
+			}
+			while (next(','));
+			if (!next(']'))
+				throw error("expected ']'");
+			return arr;
+		}
+
+		private String string() throws IOException {
+			int start = ++pos;
+			// fast path, no escapes
+			while (pos < str.length()) {
+				char c = str.charAt(pos);
+				if (c == '"')
+					return str.substring(start, pos++);
+				if (c == '\\')
+					break;
+				pos++;
+			}
+			StringBuilder sb = new StringBuilder(str.length() - start);
+			sb.append(str, start, pos);
+			while (pos < str.length()) {
+				char c = str.charAt(pos++);
+				if (c == '"')
+					return sb.toString();
+				if (c != '\\') {
+					sb.append(c);
+					continue;
+				}
+				if (pos >= str.length())
+					break;
+				c = str.charAt(pos++);
+				switch (c) {
+				case 'n':
+					sb.append('\n');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 't':
+					sb.append('\t');
+					break;
+				case 'b':
+					sb.append('\b');
+					break;
+				case 'f':
+					sb.append('\f');
+					break;
+				case 'u':
+					if (pos + 4 > str.length())
+						throw error("invalid escape");
+					try {
+						sb.append((char) Integer.parseInt(str.substring(pos, pos + 4), 16));
+					}
+					catch (NumberFormatException e) {
+						throw error("invalid escape");
+					}
+					pos += 4;
+					break;
+				default:
+					sb.append(c);
+				}
+			}
+			throw error("unterminated string");
+		}
+
+		private Double number() throws IOException {
+			int start = pos;
+			while (pos < str.length() && "+-0123456789.eE".indexOf(str.charAt(pos)) != -1)
+				pos++;
+			try {
+				return Double.valueOf(str.substring(start, pos));
+			}
+			catch (NumberFormatException e) {
+				pos = start;
+				throw error("invalid value");
+			}
+		}
+
+		private void literal(String literal) throws IOException {
+			if (!str.startsWith(literal, pos))
+				throw error("invalid value");
+			pos += literal.length();
+		}
+
+		private boolean next(char c) {
+			if (pos < str.length() && str.charAt(pos) == c) {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+
+		void skipWhitespace() {
+			while (pos < str.length() && Character.isWhitespace(str.charAt(pos)))
+				pos++;
+		}
+
+		IOException error(String msg) {
+			return new IOException("invalid JSON, " + msg + " at position [" + pos + "]");
+		}
+	}
+}
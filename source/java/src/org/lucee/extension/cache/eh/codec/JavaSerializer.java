@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh.codec;
+
+import java.io.IOException;
+
+import org.lucee.extension.cache.eh.util.SerializerUtil;
+
+/**
+ * plain java serialization of the value, keeps everything (struct types, query metadata ...) but is
+ * the largest and slowest format
+ */
+public final class JavaSerializer implements ValueSerializer {
+
+	public static final byte ID = 2;
+
+	@Override
+	public byte getId() {
+		return ID;
+	}
+
+	@Override
+	public String getName() {
+		return "java";
+	}
+
+	@Override
+	public void serialize(Object value, Buffer out) throws IOException {
+		SerializerUtil.serialize(value, out);
+	}
+
+	@Override
+	public Object deserialize(byte[] data, int offset, int length) throws IOException {
+		return SerializerUtil.deserialize(data, offset, length);
+	}
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh.codec;
+
+import java.io.IOException;
+
+import lucee.loader.engine.CFMLEngineFactory;
+import lucee.loader.util.Util;
+
+/**
+ * the known {@link ValueSerializer}s and the envelope of the values they write: two magic bytes and
+ * the id of the serializer, followed by what the serializer wrote. The encoded value is a plain byte
+ * array, so it travels through the disk store and RMI without the receiver needing any class of this
+ * extension. Compressed values have an id of their own, see {@link Compression}.
+ * <p>
+ * Values written by older versions of the extension (plain java types) are still read, but older
+ * versions cannot read this envelope, so all nodes of a replicated cache have to run a version with
+ * it, a rolling upgrade is not supported.
+ */
+public final class Serializers {
+
+	public static final ValueSerializer BINARY = new CFMLCodec();
+	public static final ValueSerializer JAVA = new JavaSerializer();
+	public static final ValueSerializer JSON = new JSONSerializer();
+
+	private static final byte MAGIC_0 = (byte) 0xC5;
+	private static final byte MAGIC_1 = (byte) 0xEC;
+	private static final int HEADER = 3;
+
+	// indexed by id, replaced as a whole when an own serializer is added
+	private static volatile ValueSerializer[] serializers = new ValueSerializer[128];
+
+	static {
+		serializers[BINARY.getId()] = BINARY;
+		serializers[JAVA.getId()] = JAVA;
+		serializers[JSON.getId()] = JSON;
+	}
+
+	private Serializers() {
+	}
+
+	/**
+	 * @param name "binary", "java", "json" or the class name of an own implementation
+	 * @throws IOException if there is no such serializer
+	 */
+	public static ValueSerializer forName(String name) throws IOException {
+		if (Util.isEmpty(name, true))
+			return BINARY;
+		name = name.trim();
+		for (ValueSerializer s: serializers) {
+			if (s != null && s.getName().equalsIgnoreCase(name))
+				return s;
+		}
+		try {
+			Object o = CFMLEngineFactory.getInstance().getClassUtil().loadClass(name).getConstructor().newInstance();
+			if (!(o instanceof ValueSerializer))
+				throw new IOException("class [" + name + "] does not implement [" + ValueSerializer.class.getName() + "]");
+			return register((ValueSerializer) o);
+		}
+		catch (IOException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new IOException("there is no serializer [" + name + "], use one of [binary, java, json] or the name of a class implementing ["
+					+ ValueSerializer.class.getName() + "]", e);
+		}
+	}
+
+	/**
+	 * adds an own serializer, caches can be set to it by its name then. The ids are shared by all caches
+	 * (the envelope only carries the id), so an id can only belong to one class
+	 * 
+	 * @return the serializer registered for the id of the given one
+	 * @throws IOException if the id is not between 16 and 127 or already used by another class
+	 */
+	public static synchronized ValueSerializer register(ValueSerializer s) throws IOException {
+		if (s.getId() < 16)
+			throw new IOException("serializer [" + s.getClass().getName() + "] has the id [" + s.getId() + "], own serializers have to use 16 to 127");
+		ValueSerializer existing = serializers[s.getId()];
+		if (existing != null) {
+			if (existing.getClass() == s.getClass())
+				return existing;
+			// the same class loaded again (bundle updated) replaces the old one
+			if (!existing.getClass().getName().equals(s.getClass().getName()))
+				throw new IOException("serializer [" + s.getClass().getName() + "] has the id [" + s.getId()
+						+ "], that is already used by [" + existing.getClass().getName() + "]");
+		}
+		ValueSerializer[] copy = serializers.clone();
+		copy[s.getId()] = s;
+		serializers = copy;
+		return s;
+	}
+
+	/**
+	 * @throws IOException if the value (or a value nested in it) cannot be written by the serializer
+	 */
+	public static byte[] encode(ValueSerializer serializer, Object value) throws IOException {
+		Buffer out = new Buffer(256);
+		out.write(MAGIC_0);
+		out.write(MAGIC_1);
+		out.write(serializer.getId());
+		serializer.serialize(value, out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return true if the data was written by {@link #encode(ValueSerializer, Object)}
+	 */
+	public static boolean isEncoded(byte[] data) {
+		return data.length >= HEADER && data[0] == MAGIC_0 && data[1] == MAGIC_1 && data[2] > 0;
+	}
+
+	/**
+	 * reads the value with the serializer it was written with
+	 * 
+	 * @throws IOException if the data is not valid or the serializer is not known here
+	 */
+	public static Object decode(byte[] data) throws IOException {
+		if (!isEncoded(data))
+			throw new IOException("data was not written by a serializer");
+		if (data[2] == Compression.ID)
+			return decode(Compression.inflate(data));
+		ValueSerializer s = serializers[data[2]];
+		if (s == null)
+			throw new IOException("there is no serializer with the id [" + data[2] + "], it has to be set for this cache as well");
+		return s.deserialize(data, HEADER, data.length - HEADER);
+	}
+}
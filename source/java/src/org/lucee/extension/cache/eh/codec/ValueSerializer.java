@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh.codec;
+
+import java.io.IOException;
+
+/**
+ * format of the values of caches that store them serialized (replication via copy). The built-in
+ * ones are "binary" ({@link CFMLCodec}), "java" and "json", an own implementation can be set with its
+ * class name instead, or with its name once it is added with {@link Serializers#register}.
+ * <p>
+ * The id is written in front of every value, so a value is always read with the serializer it was
+ * written with, no matter what the cache is set to now. The built-in serializers use the ids 1 to 15,
+ * own implementations have to use 16 to 127. The ids are shared by all caches, a cache set to a class
+ * with an id another class already uses fails to start.
+ */
+public interface ValueSerializer {
+
+	public byte getId();
+
+	public String getName();
+
+	/**
+	 * writes the value to the buffer
+	 * 
+	 * @throws IOException if the value (or a value nested in it) cannot be written in this format
+	 */
+	public void serialize(Object value, Buffer out) throws IOException;
+
+	/**
+	 * reads a value written by {@link #serialize(Object, Buffer)} from the given range of the array
+	 */
+	public Object deserialize(byte[] data, int offset, int length) throws IOException;
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh.filter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * counting bloom filter with 4 bit counters (16 per long), sized for a given number of elements at
+ * a false positive rate of about 1%. Counters saturate at 15 and are then never decremented.
+ * <p>
+ * {@link #remove(long)} must only be called for an element that was added before and not removed
+ * since, removing anything else decrements counters of other elements and can produce a false
+ * negative for them. Callers that cannot guarantee this (see {@link MissFilter}) do not remove at
+ * all.
+ */
+public final class CountingBloomFilter {
+
+	private static final int HASHES = 7;
+	private static final int COUNTERS_PER_ELEMENT = 10;
+	private static final long MAX = 15;
+
+	private final AtomicLongArray words;
+	private final int counters;
+	private final long capacity;
+	private final LongAdder size = new LongAdder();
+
+	public CountingBloomFilter(long capacity) {
+		this.capacity = Math.max(capacity, 64);
+		long c = this.capacity * COUNTERS_PER_ELEMENT;
+		// round up to full words, capped by what an int indexed array can address
+		this.counters = (int) Math.min((c + 15) & ~15L, (long) Integer.MAX_VALUE - 15);
+		this.words = new AtomicLongArray(counters >>> 4);
+	}
+
+	/**
+	 * number of elements the filter was sized for
+	 */
+	public long capacity() {
+		return capacity;
+	}
+
+	/**
+	 * number of elements added and not removed again (approximation, saturated counters are not
+	 * considered)
+	 */
+	public long size() {
+		return size.sum();
+	}
+
+	public void add(long hash) {
+		int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+		for (int i = 0; i < HASHES; i++) {
+			increment(index(h1 + i * h2));
+		}
+		size.increment();
+	}
+
+	public void remove(long hash) {
+		int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+		for (int i = 0; i < HASHES; i++) {
+			decrement(index(h1 + i * h2));
+		}
+		size.decrement();
+	}
+
+	public boolean mightContain(long hash) {
+		int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+		for (int i = 0; i < HASHES; i++) {
+			int index = index(h1 + i * h2);
+			if (((words.get(index >>> 4) >>> ((index & 15) << 2)) & MAX) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	private int index(int hash) {
+		return (hash & Integer.MAX_VALUE) % counters;
+	}
+
+	private void increment(int index) {
+		int word = index >>> 4, shift = (index & 15) << 2;
+		long current;
+		do {
+			current = words.get(word);
+			if (((current >>> shift) & MAX) == MAX)
+				return;
+		} while (!words.compareAndSet(word, current, current + (1L << shift)));
+	}
+
+	private void decrement(int index) {
+		int word = index >>> 4, shift = (index & 15) << 2;
+		long current, count;
+		do {
+			current = words.get(word);
+			count = (current >>> shift) & MAX;
+			if (count == 0 || count == MAX)
+				return;
+		} while (!words.compareAndSet(word, current, current - (1L << shift)));
+	}
+
+	/**
+	 * 64 bit hash of a cache key (FNV-1a over the chars, finished with the murmur3 mixer)
+	 */
+	public static long hash(Object key) {
+		String str = key.toString();
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0, len = str.length(); i < len; i++) {
+			h ^= str.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh.filter;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.lucee.extension.cache.eh.util.Background;
+
+import net.sf.ehcache.Ehcache;
+
+/**
+ * negative lookup front of a disk backed cache, answers "definitely not in the cache" without
+ * probing the disk store.
+ * <p>
+ * The filter is fed by the cache listener (puts, removals, evictions, expirations) and built from
+ * the keys of the cache in the background, so it also covers what a persistent disk store or a
+ * bootstrap loader brought in. Until the first build is done every key passes.
+ * <p>
+ * Removals are never taken out of the filter. A removal notification can belong to a key the
+ * filter never saw (the key was gone before the snapshot of a build, the notification arrives after
+ * the swap), decrementing for it could zero the counters of another key and turn a hit into a
+ * miss. Removed keys only cause false positives instead, the filter is rebuilt once the removals
+ * reach half of the capacity it was sized for.
+ */
+public final class MissFilter {
+
+	private static final long MIN_CAPACITY = 1024;
+
+	private final Ehcache cache;
+	private final AtomicBoolean building = new AtomicBoolean();
+	// filter answering lookups, null until the first build is done
+	private volatile CountingBloomFilter current;
+	// filter under construction
+	private volatile CountingBloomFilter next;
+	// removals since the current filter was built
+	private final LongAdder removed = new LongAdder();
+
+	public MissFilter(Ehcache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * @return false if the key is definitely not in the cache
+	 */
+	public boolean mightContain(Object key) {
+		CountingBloomFilter f = current;
+		return f == null || f.mightContain(CountingBloomFilter.hash(key));
+	}
+
+	public void added(Object key) {
+		long hash = CountingBloomFilter.hash(key);
+		// read next before current, so an add racing with the swap lands in the new filter
+		CountingBloomFilter n = next;
+		CountingBloomFilter c = current;
+		if (n != null)
+			n.add(hash);
+		if (c != null && c != n) {
+			c.add(hash);
+			if (c.size() > c.capacity())
+				rebuild();
+		}
+	}
+
+	public void removed(Object key) {
+		CountingBloomFilter c = current;
+		if (c == null)
+			return;
+		removed.increment();
+		if (removed.sum() > c.capacity() / 2)
+			rebuild();
+	}
+
+	/**
+	 * the cache was cleared, the current filter stays valid (it only answers with false positives
+	 * now), so it is replaced in the background
+	 */
+	public void cleared() {
+		rebuild();
+	}
+
+	/**
+	 * starts a build of a new filter in the background (nothing happens if one is already running)
+	 */
+	public void rebuild() {
+		if (!building.compareAndSet(false, true))
+			return;
+		try {
+			Background.execute(this::build);
+		} catch (RuntimeException re) {
+			building.set(false);
+			throw re;
+		}
+	}
+
+	private void build() {
+		try {
+			CountingBloomFilter n = new CountingBloomFilter(Math.max(MIN_CAPACITY, cache.getSize() * 2L));
+			// from now on the listener adds to the new filter, so every key put after the snapshot is in it
+			next = n;
+			removed.reset();
+			List<?> keys = cache.getKeys();
+			for (Object key : keys) {
+				if (key != null)
+					n.add(CountingBloomFilter.hash(key));
+			}
+			current = n;
+		} catch (Throwable t) {
+			if (t instanceof ThreadDeath)
+				throw (ThreadDeath) t;
+			// cache got disposed while building, the filter is not used anymore anyway
+		} finally {
+			next = null;
+			building.set(false);
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh.filter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.lucee.extension.cache.eh.util.Background;
+
+import lucee.commons.io.cache.CacheKeyFilter;
+import net.sf.ehcache.Ehcache;
+
+/**
+ * sorted set of the keys of a cache, so a prefix wildcard ("user_123_*") only visits the keys that
+ * start with the prefix instead of every key in the cache.
+ * <p>
+ * Like the {@link MissFilter} it is fed by the cache listener and built from the keys of the cache in
+ * the background, until the first build is done it answers nothing and the scan walks all keys. The
+ * index may contain keys that are already gone (they are checked against the cache by the scan
+ * anyway), but never misses a key that is in the cache.
+ * <p>
+ * Removals are not taken out of the index, the notification of a put of the same key can overtake
+ * the one of the removal, dropping the key then would hide an element that is in the cache. Removed
+ * keys stay until the index is rebuilt, that happens once they reach half of the indexed keys.
+ */
+public final class PrefixIndex {
+
+	// case insensitive like the wildcard filters of the engine, but keys that only differ in case are
+	// kept apart
+	private static final Comparator<String> ORDER = new Comparator<String>() {
+		@Override
+		public int compare(String left, String right) {
+			int c = String.CASE_INSENSITIVE_ORDER.compare(left, right);
+			return c != 0 ? c : left.compareTo(right);
+		}
+	};
+
+	// removals that always fit, so a small cache is not rebuilt all the time
+	private static final long MIN_REBUILD = 1024;
+
+	private final Ehcache cache;
+	private final AtomicBoolean building = new AtomicBoolean();
+	// index answering lookups, null until the first build is done
+	private volatile ConcurrentSkipListSet<String> current;
+	// index under construction
+	private volatile ConcurrentSkipListSet<String> next;
+	// removals since the current index was built
+	private final LongAdder removed = new LongAdder();
+
+	public PrefixIndex(Ehcache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * the pattern is read as wildcard pattern, like the filters of cacheClear, cacheGetAllIds ... create
+	 * them
+	 * 
+	 * @return the prefix of a filter pattern like "prefix*", null if the filter is something else
+	 */
+	public static String prefix(CacheKeyFilter filter) {
+		String pattern = filter == null ? null : filter.toPattern();
+		if (pattern == null)
+			return null;
+		pattern = pattern.trim();
+		int last = pattern.length() - 1;
+		if (last < 1 || pattern.charAt(last) != '*')
+			return null;
+		for (int i = 0; i < last; i++) {
+			char c = pattern.charAt(i);
+			if (c == '*' || c == '?')
+				return null;
+		}
+		return pattern.substring(0, last);
+	}
+
+	/**
+	 * @return all indexed keys starting with the prefix (ignoring case), null if the index is not
+	 *         built yet
+	 */
+	public List<String> keys(String prefix) {
+		ConcurrentSkipListSet<String> c = current;
+		if (c == null)
+			return null;
+		// the all upper case variant is the smallest key that equals the prefix ignoring case
+		String upper = prefix.toUpperCase();
+		String from = upper.length() == prefix.length() ? upper : prefix;
+		NavigableSet<String> range = c.subSet(from, true, prefix + Character.MAX_VALUE, false);
+		return new ArrayList<String>(range);
+	}
+
+	public int size() {
+		ConcurrentSkipListSet<String> c = current;
+		return c == null ? 0 : c.size();
+	}
+
+	public void added(Object key) {
+		if (!(key instanceof String))
+			return;
+		// read next before current, so an add racing with the swap lands in the new index
+		ConcurrentSkipListSet<String> n = next;
+		ConcurrentSkipListSet<String> c = current;
+		if (n != null)
+			n.add((String) key);
+		if (c != null && c != n)
+			c.add((String) key);
+	}
+
+	public void removed(Object key) {
+		ConcurrentSkipListSet<String> c = current;
+		if (c == null || !(key instanceof String))
+			return;
+		removed.increment();
+		if (removed.sum() > Math.max(MIN_REBUILD, c.size() / 2))
+			rebuild();
+	}
+
+	/**
+	 * the cache was cleared, a put racing with the notification could get lost when clearing the index
+	 * here, so it is replaced in the background
+	 */
+	public void cleared() {
+		rebuild();
+	}
+
+	/**
+	 * starts a build of a new index in the background (nothing happens if one is already running)
+	 */
+	public void rebuild() {
+		if (!building.compareAndSet(false, true))
+			return;
+		try {
+			Background.execute(this::build);
+		} catch (RuntimeException re) {
+			building.set(false);
+			throw re;
+		}
+	}
+
+	private void build() {
+		try {
+			ConcurrentSkipListSet<String> n = new ConcurrentSkipListSet<String>(ORDER);
+			// from now on the listener adds to the new index, so every key put after the snapshot is in it
+			next = n;
+			removed.reset();
+			List<?> keys = cache.getKeys();
+			for (Object key : keys) {
+				if (key instanceof String)
+					n.add((String) key);
+			}
+			current = n;
+		} catch (Throwable t) {
+			if (t instanceof ThreadDeath)
+				throw (ThreadDeath) t;
+			// cache got disposed while building, the index is not used anymore anyway
+		} finally {
+			next = null;
+			building.set(false);
+		}
+	}
+}
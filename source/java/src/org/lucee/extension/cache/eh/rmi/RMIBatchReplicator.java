@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh.rmi;
+
+import java.io.Serializable;
+import java.rmi.UnmarshalException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.lucee.extension.cache.eh.util.Background;
+
+import lucee.commons.io.log.Log;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.distribution.CacheManagerPeerProvider;
+import net.sf.ehcache.distribution.CachePeer;
+import net.sf.ehcache.distribution.RmiEventMessage;
+import net.sf.ehcache.distribution.RmiEventMessage.RmiEventType;
+
+/**
+ * replicates bulk operations with one RMI call per peer and chunk instead of one call per element,
+ * the elements themselves have to be stored with replication disabled (put(element, true)), so the
+ * registered replicator does not send them a second time
+ */
+public final class RMIBatchReplicator {
+
+	/**
+	 * maximal number of events per RMI call, keeps single calls within the socket timeout of the peers
+	 * (same default as the maximumBatchSize of the asynchronous replicator)
+	 */
+	public static final int MAX_BATCH_SIZE = 1000;
+
+	/**
+	 * maximal number of removals per RMI call, they only carry the key
+	 */
+	public static final int MAX_KEY_BATCH_SIZE = 10000;
+
+	private final boolean replicatePuts;
+	private final boolean replicatePutsViaCopy;
+	private final boolean replicateUpdates;
+	private final boolean replicateUpdatesViaCopy;
+	private final boolean replicateRemovals;
+	private final boolean async;
+	private final Log log;
+
+	public RMIBatchReplicator(boolean replicatePuts, boolean replicatePutsViaCopy, boolean replicateUpdates,
+			boolean replicateUpdatesViaCopy, boolean replicateRemovals, boolean async, Log log) {
+		this.replicatePuts = replicatePuts;
+		this.replicatePutsViaCopy = replicatePutsViaCopy;
+		this.replicateUpdates = replicateUpdates;
+		this.replicateUpdatesViaCopy = replicateUpdatesViaCopy;
+		this.replicateRemovals = replicateRemovals;
+		this.async = async;
+		this.log = log;
+	}
+
+	/**
+	 * sends the given new and updated elements to all peers of the cache, elements not replicated via
+	 * copy are sent as removal, so the peers load them again when needed
+	 * 
+	 * @param cache cache the elements were put into
+	 * @param puts elements that were not in the cache before
+	 * @param updates elements that replaced an existing element
+	 */
+	public void replicatePuts(Ehcache cache, List<Element> puts, List<Element> updates) {
+		List<RmiEventMessage> messages = new ArrayList<RmiEventMessage>(puts.size() + updates.size());
+		if (replicatePuts)
+			add(cache, messages, puts, replicatePutsViaCopy);
+		if (replicateUpdates)
+			add(cache, messages, updates, replicateUpdatesViaCopy);
+		send(cache, messages, MAX_BATCH_SIZE);
+	}
+
+	/**
+	 * sends the removal of the given keys to all peers of the cache
+	 * 
+	 * @param cache cache the keys were removed from
+	 * @param keys removed keys
+	 */
+	public void replicateRemovals(Ehcache cache, Collection<?> keys) {
+		if (!replicateRemovals)
+			return;
+		List<RmiEventMessage> messages = new ArrayList<RmiEventMessage>(keys.size());
+		for (Object key : keys) {
+			if (!(key instanceof Serializable)) {
+				if (log.getLogLevel() >= Log.LEVEL_WARN)
+					log.warn("ehcache", "Key " + key + " is not Serializable and cannot be replicated.");
+				continue;
+			}
+			messages.add(new RmiEventMessage(cache, RmiEventType.REMOVE, (Serializable) key, null));
+		}
+		send(cache, messages, MAX_KEY_BATCH_SIZE);
+	}
+
+	private void add(Ehcache cache, List<RmiEventMessage> messages, List<Element> elements, boolean viaCopy) {
+		for (Element el : elements) {
+			if (viaCopy) {
+				if (!el.isSerializable()) {
+					if (log.getLogLevel() >= Log.LEVEL_WARN)
+						log.warn("ehcache", "Object with key " + el.getObjectKey() + " is not Serializable and cannot be replicated.");
+					continue;
+				}
+				messages.add(new RmiEventMessage(cache, RmiEventType.PUT, null, el));
+			}
+			else {
+				if (!el.isKeySerializable()) {
+					if (log.getLogLevel() >= Log.LEVEL_WARN)
+						log.warn("ehcache", "Key " + el.getObjectKey() + " is not Serializable and cannot be replicated.");
+					continue;
+				}
+				messages.add(new RmiEventMessage(cache, RmiEventType.REMOVE, (Serializable) el.getObjectKey(), null));
+			}
+		}
+	}
+
+	private void send(final Ehcache cache, final List<RmiEventMessage> messages, final int batchSize) {
+		if (messages.isEmpty())
+			return;
+		if (async) {
+			Background.execute(new Runnable() {
+				@Override
+				public void run() {
+					write(cache, messages, batchSize);
+				}
+			});
+		}
+		else
+			write(cache, messages, batchSize);
+	}
+
+	private void write(Ehcache cache, List<RmiEventMessage> messages, int batchSize) {
+		CacheManagerPeerProvider provider = cache.getCacheManager().getCacheManagerPeerProvider("RMI");
+		if (provider == null)
+			return;
+		// ehcache returns a raw list of CachePeer
+		List<?> peers = provider.listRemoteCachePeers(cache);
+		if (peers == null || peers.isEmpty())
+			return;
+
+		int size = messages.size();
+		for (Object p : peers) {
+			CachePeer peer = (CachePeer) p;
+			for (int from = 0; from < size; from += batchSize) {
+				try {
+					// copied, a sub list view is not serializable
+					peer.send(new ArrayList<RmiEventMessage>(messages.subList(from, Math.min(size, from + batchSize))));
+				}
+				catch (UnmarshalException e) {
+					String message = e.getMessage();
+					if (message != null && (message.contains("Read time out") || message.contains("Read timed out"))) {
+						log.warn("ehcache", "Unable to send batch to remote peer due to socket read timeout. Consider increasing"
+								+ " the socketTimeoutMillis setting in the cacheManagerPeerListenerFactory. Message was: " + message);
+					}
+					else
+						log.debug("ehcache", "Unable to send batch to remote peer.  Message was: " + message);
+					// the peer is gone, no need to try the other chunks
+					break;
+				}
+				catch (Throwable t) {
+					if (t instanceof ThreadDeath)
+						throw (ThreadDeath) t;
+					log.error("ehcache", "Unable to send batch to remote peer.  Message was: " + t.getMessage(), t);
+					break;
+				}
+			}
+		}
+	}
+}
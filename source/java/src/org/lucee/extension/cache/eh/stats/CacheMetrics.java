@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import lucee.loader.engine.CFMLEngineFactory;
+import lucee.runtime.type.Struct;
+
+/**
+ * operation counters and latencies of a cache, striped so they can be updated from many threads
+ * without contention and without losing updates
+ */
+public final class CacheMetrics {
+
+	public static final int GET = 0;
+	public static final int PUT = 1;
+	public static final int REMOVE = 2;
+	public static final int KEYS = 3;
+	public static final int CLEAR = 4;
+	public static final int SCAN = 5;
+	public static final int GET_ALL = 6;
+	public static final int PUT_ALL = 7;
+
+	private static final String[] NAMES = new String[] { "get", "put", "remove", "keys", "clear", "scan", "getall", "putall" };
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder puts = new LongAdder();
+	private final LongAdder updates = new LongAdder();
+	private final LongAdder removes = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder expirations = new LongAdder();
+	private final LatencyHistogram[] latencies = new LatencyHistogram[NAMES.length];
+
+	public CacheMetrics() {
+		for (int i = 0; i < latencies.length; i++) {
+			latencies[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * records the latency of an operation
+	 * 
+	 * @param operation one of the constants GET, PUT, REMOVE, KEYS, CLEAR, SCAN, GET_ALL or PUT_ALL
+	 * @param start value of System.nanoTime() at the start of the operation
+	 */
+	public void latency(int operation, long start) {
+		latencies[operation].recordSince(start);
+	}
+
+	public LatencyHistogram getLatency(int operation) {
+		return latencies[operation];
+	}
+
+	public void hit() {
+		hits.increment();
+	}
+
+	public void hits(long count) {
+		hits.add(count);
+	}
+
+	public void miss() {
+		misses.increment();
+	}
+
+	public void misses(long count) {
+		misses.add(count);
+	}
+
+	public void put() {
+		puts.increment();
+	}
+
+	public void update() {
+		updates.increment();
+	}
+
+	public void remove() {
+		removes.increment();
+	}
+
+	public void removes(long count) {
+		removes.add(count);
+	}
+
+	public void eviction() {
+		evictions.increment();
+	}
+
+	public void expiration() {
+		expirations.increment();
+	}
+
+	public long hitCount() {
+		return hits.sum();
+	}
+
+	public long missCount() {
+		return misses.sum();
+	}
+
+	public long putCount() {
+		return puts.sum();
+	}
+
+	public long updateCount() {
+		return updates.sum();
+	}
+
+	public long removeCount() {
+		return removes.sum();
+	}
+
+	public long evictionCount() {
+		return evictions.sum();
+	}
+
+	public long expirationCount() {
+		return expirations.sum();
+	}
+
+	public void setInfo(Struct info) {
+		info.setEL("hit_count", Double.valueOf(hitCount()));
+		info.setEL("miss_count", Double.valueOf(missCount()));
+		info.setEL("put_count", Double.valueOf(putCount()));
+		info.setEL("update_count", Double.valueOf(updateCount()));
+		info.setEL("remove_count", Double.valueOf(removeCount()));
+		info.setEL("eviction_count", Double.valueOf(evictionCount()));
+		info.setEL("expiration_count", Double.valueOf(expirationCount()));
+
+		Struct latency = CFMLEngineFactory.getInstance().getCreationUtil().createStruct();
+		for (int i = 0; i < latencies.length; i++) {
+			latency.setEL(NAMES[i], latencies[i].snapshot().toStruct());
+		}
+		info.setEL("latency", latency);
+	}
+}
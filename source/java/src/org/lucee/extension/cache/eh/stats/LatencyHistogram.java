@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import lucee.loader.engine.CFMLEngineFactory;
+import lucee.runtime.type.Struct;
+
+/**
+ * lock free latency histogram with log-linear buckets (same layout as HdrHistogram with 4 sub bucket
+ * bits, so every value is recorded with a precision of about 6%). Recording does not allocate.
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BITS = 4;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	// values above 2^40 nanoseconds (~18 minutes) end up in the last bucket
+	private static final int MAX_EXPONENT = 40;
+	private static final int BUCKETS = SUB_COUNT + (MAX_EXPONENT - SUB_BITS + 1) * SUB_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		counts.incrementAndGet(index(nanos));
+		long m = max.get();
+		while (nanos > m && !max.compareAndSet(m, nanos)) {
+			m = max.get();
+		}
+	}
+
+	/**
+	 * @param start value of System.nanoTime() at the start of the operation
+	 */
+	public void recordSince(long start) {
+		record(System.nanoTime() - start);
+	}
+
+	static int index(long value) {
+		if (value < SUB_COUNT)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT)
+			return BUCKETS - 1;
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+		return SUB_COUNT + (exponent - SUB_BITS) * SUB_COUNT + sub;
+	}
+
+	/**
+	 * highest value that is recorded in the given bucket
+	 */
+	static long upperBound(int index) {
+		if (index < SUB_COUNT)
+			return index;
+		int exponent = (index - SUB_COUNT) / SUB_COUNT + SUB_BITS;
+		int sub = (index - SUB_COUNT) % SUB_COUNT;
+		long width = 1L << (exponent - SUB_BITS);
+		return (1L << exponent) + sub * width + width - 1;
+	}
+
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+			total += copy[i];
+		}
+		return new Snapshot(copy, total, max.get());
+	}
+
+	public static final class Snapshot {
+
+		private final long[] counts;
+		private final long total;
+		private final long max;
+
+		private Snapshot(long[] counts, long total, long max) {
+			this.counts = counts;
+			this.total = total;
+			this.max = max;
+		}
+
+		public long count() {
+			return total;
+		}
+
+		public long max() {
+			return max;
+		}
+
+		/**
+		 * @param percentile value between 0 and 100
+		 * @return upper bound in nanoseconds of the bucket holding the given percentile
+		 */
+		public long percentile(double percentile) {
+			if (total == 0)
+				return 0;
+			long rank = (long) Math.ceil(percentile / 100d * total);
+			if (rank < 1)
+				rank = 1;
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank)
+					return Math.min(upperBound(i), max);
+			}
+			return max;
+		}
+
+		/**
+		 * values in microseconds
+		 */
+		public Struct toStruct() {
+			Struct sct = CFMLEngineFactory.getInstance().getCreationUtil().createStruct();
+			sct.setEL("count", Double.valueOf(total));
+			sct.setEL("p50", toMicros(percentile(50)));
+			sct.setEL("p90", toMicros(percentile(90)));
+			sct.setEL("p99", toMicros(percentile(99)));
+			sct.setEL("p999", toMicros(percentile(99.9)));
+			sct.setEL("max", toMicros(max));
+			return sct;
+		}
+
+		private static Double toMicros(long nanos) {
+			return Double.valueOf(nanos / 1000d);
+		}
+	}
+}
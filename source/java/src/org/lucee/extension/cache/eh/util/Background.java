@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh.util;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * shared daemon threads for maintenance work of all caches (rebuilds, sweeps, ...), so no request
+ * thread has to wait for it
+ */
+public final class Background {
+
+	private static final int THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+	private static ScheduledThreadPoolExecutor executor;
+
+	private Background() {
+	}
+
+	public static void execute(Runnable task) {
+		executor().execute(task);
+	}
+
+	public static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+		return executor().schedule(task, delay, unit);
+	}
+
+	public static ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long initialDelay, long delay,
+			TimeUnit unit) {
+		return executor().scheduleWithFixedDelay(task, initialDelay, delay, unit);
+	}
+
+	private static synchronized ScheduledThreadPoolExecutor executor() {
+		if (executor == null) {
+			ScheduledThreadPoolExecutor e = new ScheduledThreadPoolExecutor(THREADS, new Factory());
+			e.setRemoveOnCancelPolicy(true);
+			e.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+			executor = e;
+		}
+		return executor;
+	}
+
+	private static final class Factory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "ehcache-background-" + count.incrementAndGet());
+			t.setDaemon(true);
+			// never keep the class loader of the thread that happened to start the pool
+			t.setContextClassLoader(Background.class.getClassLoader());
+			return t;
+		}
+	}
+}
@@ -29,6 +29,9 @@ import lucee.runtime.exp.PageException;
 import lucee.runtime.type.Struct;
 import lucee.runtime.type.dt.TimeSpan;
 
+import org.lucee.extension.cache.eh.EHCacheSupport;
+import org.lucee.extension.cache.eh.stats.CacheMetrics;
+
 public class CacheUtil {
 
 	public static Struct getInfo(CacheEntry ce) {
@@ -52,6 +55,12 @@ public class CacheUtil {
 
 	public static Struct getInfo(Cache c) {
 		Struct info=CFMLEngineFactory.getInstance().getCreationUtil().createStruct();
+		CacheMetrics metrics = c instanceof EHCacheSupport ? ((EHCacheSupport) c).getMetrics() : null;
+		if(metrics!=null) {
+			metrics.setInfo(info);
+			return info;
+		}
+		
 		try{
 			long value = c.hitCount();
 			if(value>=0)info.setEL("hit_count", Double.valueOf(value));
@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lucee.loader.engine.CFMLEngine;
+import lucee.loader.engine.CFMLEngineFactory;
+
+/**
+ * class name to class lookups for the deserialization of cached values, shared by all streams
+ * ({@link ObjectInputStreamImpl}, {@link SerializerUtil}) that read with the same class loader.
+ * <p>
+ * There is one resolver per class loader, so a class loader never gets a class another one (an old
+ * one before a reload) resolved. A class is looked up with the class loader first and then with the
+ * class util of the engine (OSGi bundles ...), once per name. Classes only the bundles know are
+ * looked up again after {@link #NEGATIVE_TTL} ms, so a bundle replaced in the meantime is found.
+ * Names that cannot be resolved are remembered for the same time, so a graph with many instances of
+ * a missing class does not search for it every time, but a bundle installed later is found.
+ * <p>
+ * The resolvers only reference the class loaders and classes weakly, they do not keep a class loader
+ * that is no longer used alive.
+ */
+public final class ClassResolver {
+
+	public static final long NEGATIVE_TTL = 10000;
+
+	private static final Map<ClassLoader, ClassResolver> resolvers = new WeakHashMap<ClassLoader, ClassResolver>();
+	// the resolver used last, most lookups are for the same class loader
+	private static volatile ClassResolver last;
+
+	private final WeakReference<ClassLoader> loader;
+	// name -> Known or Missing
+	private final ConcurrentHashMap<String, Object> classes = new ConcurrentHashMap<String, Object>();
+
+	private ClassResolver(ClassLoader loader) {
+		this.loader = new WeakReference<ClassLoader>(loader);
+	}
+
+	/**
+	 * @return the resolver for the current class loader of the engine
+	 */
+	public static ClassResolver get() {
+		return get(CFMLEngineFactory.getInstance().getClass().getClassLoader());
+	}
+
+	/**
+	 * @return the resolver for the given class loader
+	 */
+	public static ClassResolver get(ClassLoader loader) {
+		ClassResolver r = last;
+		if (r != null && r.loader.get() == loader)
+			return r;
+		synchronized (resolvers) {
+			r = resolvers.get(loader);
+			if (r == null)
+				resolvers.put(loader, r = new ClassResolver(loader));
+		}
+		last = r;
+		return r;
+	}
+
+	public ClassLoader getClassLoader() {
+		return loader.get();
+	}
+
+	/**
+	 * @return the class or null if it cannot be found
+	 */
+	public Class<?> resolve(String name) {
+		Object o = classes.get(name);
+		if (o instanceof Known) {
+			Class<?> clazz = ((Known) o).get();
+			if (clazz != null && !((Known) o).expired())
+				return clazz;
+		}
+		else if (o != null && !((Missing) o).expired())
+			return null;
+
+		ClassLoader cl = loader.get();
+		Class<?> clazz = load(cl, name);
+		if (clazz == null)
+			classes.put(name, new Missing());
+		else
+			classes.put(name, new Known(clazz, cl != null && isVisible(clazz, cl)));
+		return clazz;
+	}
+
+	private static Class<?> load(ClassLoader loader, String name) {
+		if (loader != null) {
+			try {
+				return Class.forName(name, false, loader);
+			} catch (ClassNotFoundException | LinkageError e) {
+				// try the bundles
+			}
+		}
+		try {
+			CFMLEngine engine = CFMLEngineFactory.getInstance();
+			return engine.getClassUtil().loadClass(name);
+		} catch (Throwable t) {
+			if (t instanceof ThreadDeath)
+				throw (ThreadDeath) t;
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if the class is defined by the given class loader or one of its parents
+	 */
+	private static boolean isVisible(Class<?> clazz, ClassLoader loader) {
+		ClassLoader defining = clazz.getClassLoader();
+		if (defining == null)
+			return true;
+		for (ClassLoader cl = loader; cl != null; cl = cl.getParent()) {
+			if (cl == defining)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * a resolved class, a class of the class loader (and its parents) never changes for it, a class
+	 * of a bundle can
+	 */
+	private static final class Known extends WeakReference<Class<?>> {
+		private final long until;
+
+		Known(Class<?> clazz, boolean permanent) {
+			super(clazz);
+			this.until = permanent ? Long.MAX_VALUE : System.currentTimeMillis() + NEGATIVE_TTL;
+		}
+
+		boolean expired() {
+			return until != Long.MAX_VALUE && System.currentTimeMillis() > until;
+		}
+	}
+
+	private static final class Missing {
+		private final long until = System.currentTimeMillis() + NEGATIVE_TTL;
+
+		boolean expired() {
+			return System.currentTimeMillis() > until;
+		}
+	}
+}
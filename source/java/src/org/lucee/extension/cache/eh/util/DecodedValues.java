@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh.util;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.lucee.extension.cache.eh.codec.Compression;
+
+import net.sf.ehcache.Element;
+
+/**
+ * decoded (CFML) form of the values of a cache that stores serialized values, so a hot key is not
+ * converted with every read.
+ * <p>
+ * A decoded value is only handed out for the exact raw value it was made from, a new put (local or
+ * replicated) always comes with a new raw value, so a stale decoded value is never returned. The
+ * decoded values are softly referenced and may be dropped by the GC at any time, the cache listener
+ * removes the entries of keys that are gone.
+ * <p>
+ * The decoded values are kept in a fixed number of slots (picked by the hash of the key), a key
+ * replaces whatever was in its slot. So only about that many values are decoded on the heap. All
+ * readers of a key get the same decoded value, so caches only keep them if configured to.
+ */
+public final class DecodedValues {
+
+	private final AtomicReferenceArray<Decoded> slots;
+	private final Compression compression;
+
+	/**
+	 * @param compression compression of the cache or null
+	 * @param capacity max number of decoded values kept, at least 1
+	 */
+	public DecodedValues(Compression compression, int capacity) {
+		this.compression = compression;
+		// power of 2, so the slot is a mask of the hash
+		int size = Integer.highestOneBit(Math.max(1, Math.min(capacity, 1 << 30)));
+		this.slots = new AtomicReferenceArray<Decoded>(size < capacity ? size << 1 : size);
+	}
+
+	/**
+	 * @return the value of the element converted with {@link TypeUtil#toCFML(Object)}
+	 */
+	public Object get(Element element) {
+		Object raw = element.getObjectValue();
+		if (raw == null)
+			return null;
+		Object key = element.getObjectKey();
+		Decoded d = slots.get(slot(key));
+		if (d != null && d.raw == raw && d.key.equals(key)) {
+			Object value = d.get();
+			if (value != null)
+				return value;
+		}
+		Object value = raw;
+		if (compression != null) {
+			try {
+				value = compression.inflate(raw);
+			} catch (IOException e) {
+				// toCFML tries again and logs the error
+			}
+		}
+		value = TypeUtil.toCFML(value);
+		// values that need no conversion are not worth an entry
+		if (value != raw)
+			slots.set(slot(key), new Decoded(key, raw, value));
+		return value;
+	}
+
+	public int size() {
+		int size = 0;
+		for (int i = 0; i < slots.length(); i++) {
+			if (slots.get(i) != null)
+				size++;
+		}
+		return size;
+	}
+
+	public void removed(Object key) {
+		// only if the slot still belongs to that key
+		int slot = slot(key);
+		Decoded d = slots.get(slot);
+		if (d != null && d.key.equals(key))
+			slots.compareAndSet(slot, d, null);
+	}
+
+	public void cleared() {
+		for (int i = 0; i < slots.length(); i++) {
+			slots.set(i, null);
+		}
+	}
+
+	private int slot(Object key) {
+		int h = key.hashCode();
+		return (h ^ (h >>> 16)) & (slots.length() - 1);
+	}
+
+	private static final class Decoded extends SoftReference<Object> {
+		private final Object key;
+		private final Object raw;
+
+		Decoded(Object key, Object raw, Object value) {
+			super(value);
+			this.key = key;
+			this.raw = raw;
+		}
+	}
+}
@@ -8,10 +8,24 @@ import java.io.ObjectStreamClass;
 public class ObjectInputStreamImpl extends ObjectInputStream {
 
 	private ClassLoader cl;
+	private ClassResolver resolver;
 
 	public ObjectInputStreamImpl(ClassLoader cl, InputStream in) throws IOException {
 		super(in);
 		this.cl = cl;
+		// the lookups are shared by all streams with the same class loader
+		if (cl != null)
+			this.resolver = ClassResolver.get(cl);
+	}
+
+	/**
+	 * resolves the classes with the given resolver (and only falls back to the default lookup for
+	 * what it cannot find)
+	 */
+	public ObjectInputStreamImpl(ClassResolver resolver, InputStream in) throws IOException {
+		super(in);
+		this.cl = resolver.getClassLoader();
+		this.resolver = resolver;
 	}
 
 	@Override
@@ -20,6 +34,10 @@ public class ObjectInputStreamImpl extends ObjectInputStream {
 			return super.resolveClass(desc);
 
 		String name = desc.getName();
+		if (resolver != null) {
+			Class<?> clazz = resolver.resolve(name);
+			return clazz != null ? clazz : super.resolveClass(desc);
+		}
 		try {
 			return Class.forName(name, false, cl);
 		} catch (ClassNotFoundException ex) {
@@ -27,4 +45,4 @@ public class ObjectInputStreamImpl extends ObjectInputStream {
 		}
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh.util;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+
+import lucee.commons.io.cache.CacheEntryFilter;
+import lucee.loader.engine.CFMLEngineFactory;
+import lucee.runtime.Component;
+import lucee.runtime.PageContext;
+import lucee.runtime.type.UDF;
+
+/**
+ * maps a collection (keys or elements of a cache) in parallel partitions on a shared fork join pool,
+ * collections below the threshold are mapped on the calling thread. the mapper runs without the page
+ * context of the caller, so it must not call user code (closures, components), only plain lookups in
+ * the cache and filters that pass {@link #isPoolSafe(CacheEntryFilter)}.
+ */
+public final class ParallelScan {
+
+	/**
+	 * collections with less items are mapped on the calling thread, splitting them costs more than it
+	 * saves
+	 */
+	public static final int THRESHOLD = 10000;
+
+	/**
+	 * items mapped by a single task
+	 */
+	private static final int PARTITION_SIZE = 2048;
+
+	private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+	private static final ClassValue<Boolean> POOL_SAFE = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(Class<?> type) {
+			return Boolean.valueOf(poolSafe(type));
+		}
+	};
+
+	private static ForkJoinPool pool;
+
+	public interface Mapper<K, T> {
+		/**
+		 * @return the result for the item or null to leave it out
+		 */
+		T map(K item);
+	}
+
+	private ParallelScan() {
+	}
+
+	/**
+	 * @return the non null results of the mapper, in the order of the items
+	 */
+	public static <K, T> List<T> map(Collection<K> items, Mapper<K, T> mapper) {
+		// the keys or elements of the cache can be a live view, so the partitions are taken from a copy
+		List<K> list = new ArrayList<K>(items);
+		if (list.size() < THRESHOLD || PARALLELISM < 2)
+			return map(list, 0, list.size(), mapper);
+
+		// the workers act on behalf of the caller, so they get its class loader (deserialization of values)
+		return pool().invoke(new Task<K, T>(list, 0, list.size(), mapper, Thread.currentThread().getContextClassLoader()));
+	}
+
+	/**
+	 * @return true if the filter can be called on the pool: it is part of the Lucee core or of this
+	 *         extension (like the tag filter of cacheClear) and does not call user code. closures,
+	 *         components and filters of other origin are only called on the calling thread.
+	 */
+	public static boolean isPoolSafe(CacheEntryFilter filter) {
+		return POOL_SAFE.get(filter.getClass()).booleanValue();
+	}
+
+	private static boolean poolSafe(Class<?> type) {
+		ClassLoader loader = type.getClassLoader();
+		if (loader != ParallelScan.class.getClassLoader() && loader != engineClassLoader())
+			return false;
+		for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+			// base class of the core for filters calling a closure or function
+			if (c.getName().equals("lucee.commons.io.res.util.UDFFilterSupport"))
+				return false;
+			for (Field f : c.getDeclaredFields()) {
+				Class<?> t = f.getType();
+				if (UDF.class.isAssignableFrom(t) || Component.class.isAssignableFrom(t) || PageContext.class.isAssignableFrom(t))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	private static ClassLoader engineClassLoader() {
+		try {
+			return CFMLEngineFactory.getInstance().getClass().getClassLoader();
+		} catch (Throwable t) {
+			if (t instanceof ThreadDeath)
+				throw (ThreadDeath) t;
+			return null;
+		}
+	}
+
+	private static <K, T> List<T> map(List<K> items, int from, int to, Mapper<K, T> mapper) {
+		List<T> list = new ArrayList<T>();
+		T value;
+		for (int i = from; i < to; i++) {
+			value = mapper.map(items.get(i));
+			if (value != null)
+				list.add(value);
+		}
+		return list;
+	}
+
+	private static synchronized ForkJoinPool pool() {
+		if (pool == null) {
+			pool = new ForkJoinPool(PARALLELISM, ParallelScan::newThread, null, false);
+		}
+		return pool;
+	}
+
+	private static ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+		ForkJoinWorkerThread t = new ForkJoinWorkerThread(pool) {
+		};
+		t.setName("ehcache-scan-" + t.getPoolIndex());
+		t.setDaemon(true);
+		return t;
+	}
+
+	private static final class Task<K, T> extends RecursiveTask<List<T>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<K> items;
+		private final int from;
+		private final int to;
+		private final Mapper<K, T> mapper;
+		private final ClassLoader classLoader;
+
+		Task(List<K> items, int from, int to, Mapper<K, T> mapper, ClassLoader classLoader) {
+			this.items = items;
+			this.from = from;
+			this.to = to;
+			this.mapper = mapper;
+			this.classLoader = classLoader;
+		}
+
+		@Override
+		protected List<T> compute() {
+			if (to - from <= PARTITION_SIZE)
+				return leaf();
+
+			int middle = (from + to) >>> 1;
+			Task<K, T> right = new Task<K, T>(items, middle, to, mapper, classLoader);
+			right.fork();
+			List<T> result = new Task<K, T>(items, from, middle, mapper, classLoader).compute();
+			result.addAll(right.join());
+			return result;
+		}
+
+		private List<T> leaf() {
+			// a worker may run leaves of different scans, so the class loader is set per leaf and restored after
+			Thread thread = Thread.currentThread();
+			ClassLoader previous = thread.getContextClassLoader();
+			thread.setContextClassLoader(classLoader);
+			try {
+				return map(items, from, to, mapper);
+			} finally {
+				thread.setContextClassLoader(previous);
+			}
+		}
+	}
+}
@@ -3,9 +3,11 @@ package org.lucee.extension.cache.eh.util;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.Serializable;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 
 import lucee.loader.engine.CFMLEngine;
 import lucee.loader.engine.CFMLEngineFactory;
@@ -13,72 +15,64 @@ import lucee.loader.util.Util;
 
 public class SerializerUtil {
 
-	private static Class<?> clazz;
-	private static Method ser;
-	private static Class<?> base64CoderClass;
-	private static Method decode;
-
-	public static Class<?> loadClass() throws IOException {
-		CFMLEngine engine = CFMLEngineFactory.getInstance();
-		return engine.getClassUtil().loadClass("lucee.runtime.converter.JavaConverter");
-	}
+	// lucee.runtime.coder.Base64Coder.decode(String, boolean), looked up once
+	private static volatile MethodHandle decode;
 
 	public static Class<?> loadBase64CoderClass() throws IOException {
 		CFMLEngine engine = CFMLEngineFactory.getInstance();
 		return engine.getClassUtil().loadClass("lucee.runtime.coder.Base64Coder");
 	}
 
-	public static String serialize(Object o) throws Exception {
-		if (clazz == null)
-			clazz = loadClass();
-
-		if (ser == null)
-			ser = clazz.getMethod("serialize", new Class[] { Serializable.class });
-		try {
-			return (String) ser.invoke(null, new Object[] { o });
-		} catch (InvocationTargetException ite) {
-			Throwable t = ite.getTargetException();
-			if (t instanceof Exception)
-				throw (Exception) t;
-			throw new RuntimeException(t);
+	private static MethodHandle decode() throws Exception {
+		MethodHandle mh = decode;
+		if (mh == null) {
+			mh = MethodHandles.publicLookup().findStatic(loadBase64CoderClass(), "decode",
+					MethodType.methodType(byte[].class, String.class, boolean.class));
+			decode = mh;
 		}
+		return mh;
 	}
 
+	/**
+	 * writes the object java serialized (no Base64) to the stream
+	 */
+	public static void serialize(Object o, OutputStream os) throws IOException {
+		ObjectOutputStream oos = new ObjectOutputStream(os);
+		oos.writeObject(o);
+		oos.flush();
+	}
+
+	/**
+	 * reads the Base64 form ("lucee-serialized:" values) written by older versions
+	 */
 	public static Object evaluate(String str) throws Exception {
-		if (base64CoderClass == null)
-			base64CoderClass = loadBase64CoderClass();
-		if (decode == null)
-			decode = base64CoderClass.getMethod("decode", new Class[] { String.class, boolean.class });
-		// lucee.runtime.converter.JavaConverter.decode(java.lang.String, boolean)
 		byte[] raw;
 		try {
-			raw = (byte[]) decode.invoke(null, new Object[] { str, true });
-		} catch (InvocationTargetException ite) {
-			Throwable t = ite.getTargetException();
-			if (t instanceof Exception)
-				throw (Exception) t;
+			raw = (byte[]) decode().invoke(str, true);
+		} catch (Exception | Error e) {
+			throw e;
+		} catch (Throwable t) {
 			throw new RuntimeException(t);
 		}
 
-		ByteArrayInputStream bais = new ByteArrayInputStream(raw);
+		return deserialize(raw, 0, raw.length);
+	}
+
+	/**
+	 * reads a java serialized object from the given range of the array, the classes are resolved
+	 * with the shared {@link ClassResolver} (also the ones only the bundles know), so the data is
+	 * read once
+	 */
+	public static Object deserialize(byte[] raw, int offset, int length) throws IOException {
 		ObjectInputStream ois = null;
 		try {
-			ois = new ObjectInputStreamImpl(CFMLEngineFactory.getInstance().getClass().getClassLoader(), bais);
+			ois = new ObjectInputStreamImpl(ClassResolver.get(), new ByteArrayInputStream(raw, offset, length));
 			return ois.readObject();
 		} catch (ClassNotFoundException cnfe) {
-			String className = cnfe.getMessage();
-			if (!Util.isEmpty(className, true)) {
-				Class<?> clazz = CFMLEngineFactory.getInstance().getClassUtil().loadClass(className.trim());
-				bais = new ByteArrayInputStream(raw);
-				ois = new ObjectInputStreamImpl(clazz.getClassLoader(), bais);
-				return ois.readObject();
-			}
-
 			throw CFMLEngineFactory.getInstance().getExceptionUtil().toIOException(cnfe);
 		} finally {
 			Util.closeEL(ois);
 		}
-
 	}
 
 }
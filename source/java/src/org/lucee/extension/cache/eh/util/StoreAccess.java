@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh.util;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.PersistenceConfiguration;
+import net.sf.ehcache.config.PersistenceConfiguration.Strategy;
+import net.sf.ehcache.store.MemoryStore;
+
+/**
+ * access to the elements of a heap only cache, so a full dump walks the store once instead of listing
+ * the keys and looking up every key again, and to the tiers a cache has.
+ * <p>
+ * ehcache does not expose the store of a cache, so it is read by reflection. If that is not possible
+ * (other ehcache version, security manager) or the cache has more than a heap tier, the callers fall
+ * back to the keys.
+ */
+public final class StoreAccess {
+
+	private static final Method GET_STORE = getStoreMethod();
+
+	private StoreAccess() {
+	}
+
+	/**
+	 * @return live view of the elements of the cache (weakly consistent, expired elements included) or
+	 *         null if the cache cannot be walked that way
+	 */
+	public static Collection<Element> elements(Cache cache) {
+		if (GET_STORE == null)
+			return null;
+		try {
+			Object store = GET_STORE.invoke(cache);
+			return store instanceof MemoryStore ? ((MemoryStore) store).elementSet() : null;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if the cache has a tier besides the heap (disk or other), also if that cannot be
+	 *         told
+	 */
+	public static boolean hasDiskTier(Cache cache) {
+		PersistenceConfiguration persistence = cache.getCacheConfiguration().getPersistenceConfiguration();
+		if (persistence != null)
+			return persistence.getStrategy() != Strategy.NONE;
+		// overflowToDisk and diskPersistent have no persistence configuration, the store tells
+		if (GET_STORE == null)
+			return true;
+		try {
+			return !(GET_STORE.invoke(cache) instanceof MemoryStore);
+		} catch (Exception e) {
+			return true;
+		}
+	}
+
+	private static Method getStoreMethod() {
+		try {
+			Method m = Cache.class.getDeclaredMethod("getStore");
+			m.setAccessible(true);
+			return m;
+		} catch (Throwable t) {
+			if (t instanceof ThreadDeath)
+				throw (ThreadDeath) t;
+			return null;
+		}
+	}
+}
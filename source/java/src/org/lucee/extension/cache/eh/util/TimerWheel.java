@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2015, Lucee Assosication Switzerland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.lucee.extension.cache.eh.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * hierarchical timer wheel, 4 levels of 64 buckets each. Timers are placed in the level that covers
+ * their distance and move down a level whenever the wheel below completed a round, so scheduling is
+ * O(1) and every tick only touches the buckets that are due.
+ * <p>
+ * Timers can be scheduled from any thread, {@link #advance(long, Collection)} has to be called by a
+ * single thread. A timer scheduled while the wheel advances may fire up to one round of its level
+ * late, the wheel is meant for work that is verified when it fires.
+ */
+public final class TimerWheel<K> {
+
+	private static final int BITS = 6;
+	private static final int SIZE = 1 << BITS;
+	private static final int MASK = SIZE - 1;
+	private static final int LEVELS = 4;
+	// timers further away wait at the end of the top level and get placed again from there
+	private static final long SPAN = 1L << (BITS * LEVELS);
+
+	private final long tick;
+	// level by level, bucket i of level l is at l * SIZE + i
+	private final List<Queue<Timer<K>>> buckets;
+	// last tick that was processed
+	private volatile long current;
+
+	/**
+	 * @param tick length of a tick in milliseconds
+	 * @param now current time in milliseconds
+	 */
+	public TimerWheel(long tick, long now) {
+		this.tick = tick;
+		this.current = now / tick;
+		this.buckets = new ArrayList<Queue<Timer<K>>>(LEVELS * SIZE);
+		for (int i = 0; i < LEVELS * SIZE; i++) {
+			buckets.add(new ConcurrentLinkedQueue<Timer<K>>());
+		}
+	}
+
+	public Timer<K> schedule(K key, long deadline) {
+		Timer<K> t = new Timer<K>(key, deadline, deadline / tick);
+		place(t);
+		return t;
+	}
+
+	/**
+	 * moves the wheel to the given time and adds all timers that are due to the collection
+	 */
+	public void advance(long now, Collection<Timer<K>> due) {
+		long target = now / tick;
+		while (current < target) {
+			long c = current + 1;
+			current = c;
+			// higher levels first, their timers may drop right into the bucket of this tick
+			for (int l = LEVELS - 1; l > 0; l--) {
+				if ((c & ((1L << (BITS * l)) - 1)) == 0)
+					drain(bucket(l, c), c, due);
+			}
+			drain(bucket(0, c), c, due);
+		}
+	}
+
+	private void drain(Queue<Timer<K>> bucket, long c, Collection<Timer<K>> due) {
+		// taken out first, a timer placed again could otherwise end up in the same bucket
+		List<Timer<K>> timers = new ArrayList<Timer<K>>();
+		Timer<K> t;
+		while ((t = bucket.poll()) != null) {
+			timers.add(t);
+		}
+		for (int i = 0; i < timers.size(); i++) {
+			t = timers.get(i);
+			if (t.at <= c)
+				due.add(t);
+			else
+				place(t);
+		}
+	}
+
+	private void place(Timer<K> t) {
+		long c = current;
+		// timers that are already due fire with the next tick
+		long at = Math.max(t.at, c + 1);
+		long delta = at - c;
+		if (delta >= SPAN) {
+			at = c + SPAN - 1;
+			delta = SPAN - 1;
+		}
+		int l = 0;
+		while (delta >= (1L << (BITS * (l + 1)))) {
+			l++;
+		}
+		bucket(l, at).add(t);
+	}
+
+	// bucket of the level the given tick falls in
+	private Queue<Timer<K>> bucket(int level, long tick) {
+		return buckets.get(level * SIZE + (int) ((tick >>> (BITS * level)) & MASK));
+	}
+
+	public static final class Timer<K> {
+		private final K key;
+		private final long deadline;
+		private final long at;
+
+		private Timer(K key, long deadline, long at) {
+			this.key = key;
+			this.deadline = deadline;
+			this.at = at;
+		}
+
+		public K getKey() {
+			return key;
+		}
+
+		/**
+		 * @return time in milliseconds the timer was scheduled for
+		 */
+		public long getDeadline() {
+			return deadline;
+		}
+	}
+}
@@ -8,6 +8,9 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.lucee.extension.cache.eh.codec.CFMLCodec;
+import org.lucee.extension.cache.eh.codec.Serializers;
+import org.lucee.extension.cache.eh.codec.ValueSerializer;
 import org.lucee.extension.cache.util.print;
 
 import lucee.loader.engine.CFMLEngineFactory;
@@ -31,10 +34,34 @@ public class TypeUtil {
 	 * @return
 	 */
 	public static Object toJVM(Object value) {
+		return toJVM(value, Serializers.BINARY);
+	}
+
+	/**
+	 * converts the value to a type the JVM understands, structs, arrays, components ... are written
+	 * with the given serializer
+	 */
+	public static Object toJVM(Object value, ValueSerializer serializer) {
 		if (value == null)
 			return null;
 		// print.e("jvm:"+value.getClass().getName());
 
+		// if that fails we try the binary serializer and then fall back to the plain java types below
+		if (CFMLCodec.supports(value) || CFMLCodec.needsSerialization(value)) {
+			try {
+				return Serializers.encode(serializer, value);
+			} catch (Exception e) {
+				// print.e(e);
+			}
+			if (serializer != Serializers.BINARY) {
+				try {
+					return Serializers.encode(Serializers.BINARY, value);
+				} catch (Exception e) {
+					// print.e(e);
+				}
+			}
+		}
+
 		// DateTime
 		if (value instanceof DateTime) {
 			return new Date(((DateTime) value).getTime());
@@ -72,17 +99,8 @@ public class TypeUtil {
 		// Node Lucee extract raw node
 		// Component
 		// UDF
-
-		ClassLoader cl = value.getClass().getClassLoader();
-
-		if (cl != null && cl != ClassLoader.getSystemClassLoader()) {
-			try {
-				return "lucee-serialized:" + SerializerUtil.serialize(value);
-			} catch (Exception e) {
-				// print.e("Could not serialize item \"" + value.toString() + "\" in toJVM()");
-				// print.e(e);
-			}
-		}
+		// (everything that is not a java type was written by CFMLCodec, if we get here it is not
+		// serializable)
 
 		return value;
 	}
@@ -91,6 +109,15 @@ public class TypeUtil {
 		if (value == null)
 			return null;
 
+		if (value instanceof byte[] && Serializers.isEncoded((byte[]) value)) {
+			try {
+				return Serializers.decode((byte[]) value);
+			} catch (Exception e) {
+				print.e("Could not decode item in toCFML()");
+				print.e(e);
+			}
+		}
+		// written by older versions of toJVM (or as fallback)
 		if (value instanceof LinkedList) {
 			Iterator it = ((LinkedList) value).iterator();
 			Array arr = creator().createArray();